@@ -0,0 +1,222 @@
+import edu.princeton.cs.algs4.Digraph;
+import java.util.Arrays;
+
+// Precomputed ancestor lists for every vertex: the (ancestor, distance) pairs reachable from
+// v, sorted by ancestor id and stored back to back in one int array. Hypernym graphs are
+// shallow, so the lists are short and a shortest ancestral path query becomes a merge of
+// two lists instead of a graph traversal. Immutable and safe for concurrent use.
+public final class AncestorIndex {
+
+    private final int V;
+    // pairs for vertex v occupy entries[2 * offsets[v]] up to entries[2 * offsets[v + 1]]
+    private final int[] offsets;
+    private final int[] entries;
+    private final long buildMillis;
+
+    public AncestorIndex(Digraph G) {
+        this(new CompactDigraph(checkNull(G)));
+    }
+
+    AncestorIndex(CompactDigraph G) {
+        this(G, null, null);
+    }
+
+    // Lists for G, copied from previous for every vertex it covers that is not marked stale
+    // and searched for the rest. Adding an edge v->w only changes the ancestors of v and its
+    // descendants, so an update recomputes those lists and copies the others.
+    private AncestorIndex(CompactDigraph G, AncestorIndex previous, boolean[] stale) {
+        long start = System.currentTimeMillis();
+        V = G.V();
+        offsets = new int[V + 1];
+        int[] pairs = new int[(previous == null) ? 2 * V : previous.entries.length + 2 * (V - previous.V)];
+        long[] sorted = new long[16];
+        int size = 0;
+        for (int v = 0; v < V; v++) {
+            if ((previous != null) && (v < previous.V) && !stale[v]) {
+                int from = previous.offsets[v];
+                int count = previous.offsets[v + 1] - from;
+                if (pairs.length < 2 * (size + count)) {
+                    pairs = Arrays.copyOf(pairs, Math.max(2 * (size + count), 2 * pairs.length));
+                }
+                System.arraycopy(previous.entries, 2 * from, pairs, 2 * size, 2 * count);
+                size += count;
+                offsets[v + 1] = size;
+                continue;
+            }
+            SearchContext context = SearchContext.begin(V);
+            context.v.seed(v);
+            context.v.exhaust(G);
+            int count = context.v.visited();
+            if (sorted.length < count) {
+                sorted = new long[Math.max(count, 2 * sorted.length)];
+            }
+            for (int i = 0; i < count; i++) {
+                int x = context.v.vertex(i);
+                sorted[i] = ((long) x << 32) | context.v.distTo(x);
+            }
+            Arrays.sort(sorted, 0, count);
+            if (pairs.length < 2 * (size + count)) {
+                pairs = Arrays.copyOf(pairs, Math.max(2 * (size + count), 2 * pairs.length));
+            }
+            for (int i = 0; i < count; i++) {
+                pairs[2 * size] = (int) (sorted[i] >>> 32);
+                pairs[2 * size + 1] = (int) sorted[i];
+                size++;
+            }
+            offsets[v + 1] = size;
+        }
+        entries = Arrays.copyOf(pairs, 2 * size);
+        buildMillis = System.currentTimeMillis() - start;
+    }
+
+    // the index of G, a supergraph of the indexed graph; stale marks the old vertices whose
+    // ancestors changed, and vertices added since are always searched
+    AncestorIndex update(CompactDigraph G, boolean[] stale) {
+        return new AncestorIndex(G, this, stale);
+    }
+
+    // length of shortest ancestral path between v and w; -1 if no such path
+    public int length(int v, int w) {
+        return path(v, w).length();
+    }
+
+    // a common ancestor of v and w that participates in a shortest ancestral path; -1 if no such path
+    public int ancestor(int v, int w) {
+        return path(v, w).ancestor();
+    }
+
+    // length and common ancestor of a shortest ancestral path between v and w, by merging
+    // the two sorted ancestor lists
+    public SAP.AncestralPath path(int v, int w) {
+        checkRange(v);
+        checkRange(w);
+        int i = 2 * offsets[v];
+        int iEnd = 2 * offsets[v + 1];
+        int j = 2 * offsets[w];
+        int jEnd = 2 * offsets[w + 1];
+        int length = -1;
+        int ancestor = -1;
+        while ((i < iEnd) && (j < jEnd)) {
+            int a = entries[i];
+            int b = entries[j];
+            if (a < b) {
+                i += 2;
+            } else if (a > b) {
+                j += 2;
+            } else {
+                int len = entries[i + 1] + entries[j + 1];
+                if ((length == -1) || (len < length)) {
+                    length = len;
+                    ancestor = a;
+                }
+                i += 2;
+                j += 2;
+            }
+        }
+        return new SAP.AncestralPath(length, ancestor);
+    }
+
+    // length and common ancestor of a shortest ancestral path between any vertex in v and
+    // any vertex in w: the lists of v are folded into a per-thread distance map, then the
+    // lists of w are looked up in it
+    public SAP.AncestralPath path(Iterable<Integer> v, Iterable<Integer> w) {
+        checkNull(v);
+        checkNull(w);
+        SearchContext context = SearchContext.begin(V);
+        for (int x : v) {
+            fold(context, x);
+        }
+        Probe probe = new Probe();
+        for (int x : w) {
+            probe.scan(context, x);
+        }
+        return new SAP.AncestralPath(probe.length, probe.ancestor);
+    }
+
+    // path between any of v[vFrom..vTo) and any of w[wFrom..wTo); the ids are assumed to be in range
+    SAP.AncestralPath path(int[] v, int vFrom, int vTo, int[] w, int wFrom, int wTo) {
+        if ((vTo - vFrom == 1) && (wTo - wFrom == 1)) {
+            return path(v[vFrom], w[wFrom]);
+        }
+        SearchContext context = SearchContext.begin(V);
+        for (int i = vFrom; i < vTo; i++) {
+            fold(context, v[i]);
+        }
+        Probe probe = new Probe();
+        for (int i = wFrom; i < wTo; i++) {
+            probe.scan(context, w[i]);
+        }
+        return new SAP.AncestralPath(probe.length, probe.ancestor);
+    }
+
+    private void fold(SearchContext context, int x) {
+        for (int i = 2 * offsets[x]; i < 2 * offsets[x + 1]; i += 2) {
+            context.v.relax(entries[i], entries[i + 1]);
+        }
+    }
+
+    // best common ancestor seen while looking up ancestor lists in a folded distance map
+    private final class Probe {
+        private int length = -1;
+        private int ancestor = -1;
+
+        void scan(SearchContext context, int x) {
+            for (int i = 2 * offsets[x]; i < 2 * offsets[x + 1]; i += 2) {
+                int dist = context.v.distTo(entries[i]);
+                if (dist != -1) {
+                    int len = dist + entries[i + 1];
+                    if ((length == -1) || (len < length)) {
+                        length = len;
+                        ancestor = entries[i];
+                    }
+                }
+            }
+        }
+    }
+
+    // number of (ancestor, distance) pairs stored
+    public int size() {
+        return offsets[V];
+    }
+
+    // time taken to build the index (or the last update), in milliseconds
+    public long buildMillis() {
+        return buildMillis;
+    }
+
+    // approximate heap footprint of the index arrays, in bytes
+    public long memoryBytes() {
+        return 4L * offsets.length + 4L * entries.length;
+    }
+
+    @Override
+    public String toString() {
+        return "AncestorIndex[vertices=" + V + ", pairs=" + size() + ", bytes=" + memoryBytes() + ", buildMillis="
+                + buildMillis + "]";
+    }
+
+    private static Digraph checkNull(Digraph G) {
+        if (G == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        return G;
+    }
+
+    private void checkNull(Iterable<Integer> v) {
+        if (v == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        for (Integer i : v) {
+            if (i == null) {
+                throw new IllegalArgumentException("arguments cannot be null");
+            }
+            checkRange(i);
+        }
+    }
+
+    private void checkRange(int v) {
+        if ((v < 0) || (v >= V)) {
+            throw new IllegalArgumentException("arguments outside range");
+        }
+    }
+}
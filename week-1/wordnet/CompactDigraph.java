@@ -0,0 +1,98 @@
+import edu.princeton.cs.algs4.Digraph;
+import java.util.Arrays;
+
+// Immutable digraph in compressed sparse row form: the vertices adjacent from v are
+// targets[offsets[v]] up to targets[offsets[v + 1]], in the order Digraph.adj(v) returns them.
+final class CompactDigraph {
+
+    private final int[] offsets;
+    private final int[] targets;
+    // built on first use; racing threads may each build one, which is harmless
+    private volatile CompactDigraph reverse;
+
+    CompactDigraph(Digraph G) {
+        offsets = new int[G.V() + 1];
+        targets = new int[G.E()];
+        int e = 0;
+        for (int v = 0; v < G.V(); v++) {
+            for (int w : G.adj(v)) {
+                targets[e++] = w;
+            }
+            offsets[v + 1] = e;
+        }
+    }
+
+    // takes ownership of the arrays
+    CompactDigraph(int[] offsets, int[] targets) {
+        if ((offsets.length == 0) || (offsets[0] != 0) || (offsets[offsets.length - 1] != targets.length)) {
+            throw new IllegalArgumentException("malformed adjacency arrays");
+        }
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    int V() {
+        return offsets.length - 1;
+    }
+
+    int E() {
+        return targets.length;
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    int[] targets() {
+        return targets;
+    }
+
+    // a copy with one more vertex, adjacent to the given vertices
+    CompactDigraph withVertex(int[] adjacent) {
+        int V = V();
+        int[] o = Arrays.copyOf(offsets, V + 2);
+        o[V + 1] = targets.length + adjacent.length;
+        int[] t = Arrays.copyOf(targets, targets.length + adjacent.length);
+        System.arraycopy(adjacent, 0, t, targets.length, adjacent.length);
+        return new CompactDigraph(o, t);
+    }
+
+    // a copy with the edge v->w appended to the adjacency list of v
+    CompactDigraph withEdge(int v, int w) {
+        int[] o = new int[offsets.length];
+        for (int x = 0; x < o.length; x++) {
+            o[x] = (x <= v) ? offsets[x] : offsets[x] + 1;
+        }
+        int[] t = new int[targets.length + 1];
+        int end = offsets[v + 1];
+        System.arraycopy(targets, 0, t, 0, end);
+        t[end] = w;
+        System.arraycopy(targets, end, t, end + 1, targets.length - end);
+        return new CompactDigraph(o, t);
+    }
+
+    // the digraph with every edge reversed
+    CompactDigraph reverse() {
+        CompactDigraph r = reverse;
+        if (r == null) {
+            int V = V();
+            int[] o = new int[V + 1];
+            for (int w : targets) {
+                o[w + 1]++;
+            }
+            for (int x = 0; x < V; x++) {
+                o[x + 1] += o[x];
+            }
+            int[] next = Arrays.copyOf(o, V);
+            int[] t = new int[targets.length];
+            for (int v = 0; v < V; v++) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    t[next[targets[e]]++] = v;
+                }
+            }
+            r = new CompactDigraph(o, t);
+            reverse = r;
+        }
+        return r;
+    }
+}
@@ -0,0 +1,461 @@
+import edu.princeton.cs.algs4.Digraph;
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+import java.util.Arrays;
+import java.util.Random;
+
+// Distances between every vertex and a few landmark vertices: the roots first, then the
+// vertices with the most incoming edges (the synsets with the most hyponyms). Two distances
+// are kept per (vertex, landmark), one byte each:
+// - up: directed distance from the vertex to the landmark. A landmark reachable from both
+//   v and w is a common ancestor, so up(v) + up(w) is the length of an actual ancestral
+//   path and bounds the shortest one from above.
+// - around: undirected distance. An ancestral path is an undirected path, so by the
+//   triangle inequality |around(v) - around(w)| bounds it from below.
+// Both bounds take O(landmarks). path() answers exactly, seeding the bidirectional search
+// with the upper bound so it only explores shorter paths, and skipping the search when the
+// bounds meet. Immutable and safe for concurrent use.
+// A graph that grows by edges out of one vertex, as WordNet's does, is sketched from the
+// previous sketch by update(), which keeps the landmarks and only lowers the distances
+// that the new edges shorten.
+public final class LandmarkSketch {
+
+    // distances of 255 or more are not stored
+    private static final int UNKNOWN = 255;
+
+    private final CompactDigraph graph;
+    private final int[] landmarks;
+    // distances for vertex v and landmark i are at [v * landmarks.length + i]
+    private final byte[] up;
+    private final byte[] around;
+    private final long buildMillis;
+
+    public LandmarkSketch(Digraph G, int landmarks) {
+        this(new CompactDigraph(checkNull(G)), landmarks);
+    }
+
+    LandmarkSketch(CompactDigraph G, int landmarks) {
+        if (landmarks <= 0) {
+            throw new IllegalArgumentException("landmark count must be positive");
+        }
+        long start = System.currentTimeMillis();
+        graph = G;
+        this.landmarks = choose(G, Math.min(landmarks, G.V()));
+        int L = this.landmarks.length;
+        up = new byte[G.V() * L];
+        around = new byte[G.V() * L];
+        CompactDigraph reverse = G.reverse();
+        int[] dist = new int[G.V()];
+        int[] queue = new int[G.V()];
+        for (int i = 0; i < L; i++) {
+            // vertices that reach the landmark are the ones reached from it in the reverse graph
+            bfs(reverse, null, this.landmarks[i], dist, queue);
+            store(up, i, dist);
+            bfs(G, reverse, this.landmarks[i], dist, queue);
+            store(around, i, dist);
+        }
+        buildMillis = System.currentTimeMillis() - start;
+    }
+
+    // Distances for G, which is the sketched graph with edges added out of v, or with v added
+    // as its last vertex. A path the new edges shorten passes through v, so every distance
+    // becomes the smaller of the old one and the distance to v plus v's own, which is one
+    // more than the old distance of a neighbour at best. That takes one search from v per
+    // table instead of two per landmark: O(V + E + V * landmarks) against
+    // O(landmarks * (V + E)) for a new sketch.
+    private LandmarkSketch(CompactDigraph G, LandmarkSketch previous, int v) {
+        long start = System.currentTimeMillis();
+        graph = G;
+        landmarks = previous.landmarks;
+        int L = landmarks.length;
+        up = Arrays.copyOf(previous.up, G.V() * L);
+        around = Arrays.copyOf(previous.around, G.V() * L);
+        Arrays.fill(up, previous.graph.V() * L, up.length, (byte) UNKNOWN);
+        Arrays.fill(around, previous.graph.V() * L, around.length, (byte) UNKNOWN);
+        CompactDigraph reverse = G.reverse();
+        int[] dist = new int[G.V()];
+        int[] queue = new int[G.V()];
+        int reached = bfs(reverse, null, v, dist, queue);
+        shorten(up, G, null, v, dist, queue, reached);
+        reached = bfs(G, reverse, v, dist, queue);
+        shorten(around, G, reverse, v, dist, queue, reached);
+        buildMillis = System.currentTimeMillis() - start;
+    }
+
+    // the sketch of G, the sketched graph with edges added out of v or with v added as its
+    // last vertex; the landmarks stay the same
+    LandmarkSketch update(CompactDigraph G, int v) {
+        return new LandmarkSketch(G, this, v);
+    }
+
+    // vertices without outgoing edges, then the rest by decreasing in-degree
+    private static int[] choose(CompactDigraph G, int count) {
+        int[] offsets = G.offsets();
+        int[] rOffsets = G.reverse().offsets();
+        long[] order = new long[G.V()];
+        for (int v = 0; v < G.V(); v++) {
+            boolean root = offsets[v] == offsets[v + 1];
+            long rank = root ? Integer.MAX_VALUE : rOffsets[v + 1] - rOffsets[v];
+            // ascending sort of (-rank, v) puts the highest rank first, ties by id
+            order[v] = (-rank << 32) | v;
+        }
+        Arrays.sort(order);
+        int[] chosen = new int[count];
+        for (int i = 0; i < count; i++) {
+            chosen[i] = (int) order[i];
+        }
+        return chosen;
+    }
+
+    // breadth-first distances from s along the edges of a, and of b if not null; -1 if
+    // unreached. Returns the number of vertices reached, which are left in queue.
+    private static int bfs(CompactDigraph a, CompactDigraph b, int s, int[] dist, int[] queue) {
+        Arrays.fill(dist, -1);
+        dist[s] = 0;
+        queue[0] = s;
+        int head = 0;
+        int tail = 1;
+        while (head < tail) {
+            int x = queue[head++];
+            tail = visit(a, x, dist, queue, tail);
+            if (b != null) {
+                tail = visit(b, x, dist, queue, tail);
+            }
+        }
+        return tail;
+    }
+
+    private static int visit(CompactDigraph G, int x, int[] dist, int[] queue, int tail) {
+        int[] offsets = G.offsets();
+        int[] targets = G.targets();
+        for (int e = offsets[x]; e < offsets[x + 1]; e++) {
+            int y = targets[e];
+            if (dist[y] == -1) {
+                dist[y] = dist[x] + 1;
+                queue[tail++] = y;
+            }
+        }
+        return tail;
+    }
+
+    private void store(byte[] table, int i, int[] dist) {
+        int L = landmarks.length;
+        for (int v = 0; v < dist.length; v++) {
+            int d = ((dist[v] == -1) || (dist[v] > UNKNOWN)) ? UNKNOWN : dist[v];
+            table[v * L + i] = (byte) d;
+        }
+    }
+
+    // lowers the distances of the reached vertices in queue[0..reached) to paths through v,
+    // at dist from them, given that v's neighbours along a, and b if not null, still hold
+    // their old distances
+    private void shorten(byte[] table, CompactDigraph a, CompactDigraph b, int v, int[] dist, int[] queue,
+            int reached) {
+        int L = landmarks.length;
+        for (int i = 0; i < L; i++) {
+            // the column of landmark i is only written once v's distance is known
+            int d = Math.min(get(table, v, i), 1 + nearest(table, a, v, i));
+            if (b != null) {
+                d = Math.min(d, 1 + nearest(table, b, v, i));
+            }
+            for (int k = 0; k < reached; k++) {
+                int x = queue[k];
+                int through = dist[x] + d;
+                if (through < get(table, x, i)) {
+                    table[x * L + i] = (byte) through;
+                }
+            }
+        }
+    }
+
+    // smallest distance to landmark i among the neighbours of v along the edges of G
+    private int nearest(byte[] table, CompactDigraph G, int v, int i) {
+        int[] offsets = G.offsets();
+        int[] targets = G.targets();
+        int d = UNKNOWN;
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            d = Math.min(d, get(table, targets[e], i));
+        }
+        return d;
+    }
+
+    private int get(byte[] table, int v, int i) {
+        return table[v * landmarks.length + i] & 0xFF;
+    }
+
+    // length of an ancestral path between v and w through a landmark, at least the length
+    // of the shortest one; -1 if no landmark is a common ancestor
+    public int upperBound(int v, int w) {
+        checkRange(v);
+        checkRange(w);
+        return upper(new int[] {v}, 0, 1, new int[] {w}, 0, 1).length();
+    }
+
+    // at most the length of the shortest ancestral path between v and w, if there is one
+    public int lowerBound(int v, int w) {
+        checkRange(v);
+        checkRange(w);
+        return lower(v, w);
+    }
+
+    // length of shortest ancestral path between v and w; -1 if no such path
+    public int length(int v, int w) {
+        return path(v, w).length();
+    }
+
+    // a common ancestor of v and w that participates in a shortest ancestral path; -1 if no such path
+    public int ancestor(int v, int w) {
+        return path(v, w).ancestor();
+    }
+
+    // shortest ancestral path between v and w, found by a search bounded by the sketch
+    public SAP.AncestralPath path(int v, int w) {
+        checkRange(v);
+        checkRange(w);
+        return path(new int[] {v}, 0, 1, new int[] {w}, 0, 1);
+    }
+
+    // shortest ancestral path between any of v[vFrom..vTo) and any of w[wFrom..wTo); the
+    // ids are assumed to be in range
+    SAP.AncestralPath path(int[] v, int vFrom, int vTo, int[] w, int wFrom, int wTo) {
+        SAP.AncestralPath bound = upper(v, vFrom, vTo, w, wFrom, wTo);
+        if ((bound.length() != -1) && (bound.length() == lower(v, vFrom, vTo, w, wFrom, wTo))) {
+            return bound;
+        }
+        SearchContext context = SearchContext.begin(graph.V());
+        if (bound.length() != -1) {
+            context.bound(bound.length(), bound.ancestor());
+        }
+        for (int i = vFrom; i < vTo; i++) {
+            context.v.seed(v[i]);
+        }
+        for (int i = wFrom; i < wTo; i++) {
+            context.w.seed(w[i]);
+        }
+        context.run(graph);
+        return new SAP.AncestralPath(context.length(), context.ancestor());
+    }
+
+    // shortest path through a landmark between the two sets, with that landmark as ancestor;
+    // length -1 if no landmark is a common ancestor
+    SAP.AncestralPath upper(int[] v, int vFrom, int vTo, int[] w, int wFrom, int wTo) {
+        int length = -1;
+        int ancestor = -1;
+        for (int i = 0; i < landmarks.length; i++) {
+            int a = nearest(v, vFrom, vTo, i);
+            int b = nearest(w, wFrom, wTo, i);
+            if ((a != UNKNOWN) && (b != UNKNOWN) && ((length == -1) || (a + b < length))) {
+                length = a + b;
+                ancestor = landmarks[i];
+            }
+        }
+        return new SAP.AncestralPath(length, ancestor);
+    }
+
+    private int nearest(int[] v, int from, int to, int i) {
+        int d = UNKNOWN;
+        for (int k = from; k < to; k++) {
+            d = Math.min(d, get(up, v[k], i));
+        }
+        return d;
+    }
+
+    // lower bound over every pair drawn from the two sets
+    int lower(int[] v, int vFrom, int vTo, int[] w, int wFrom, int wTo) {
+        int bound = Integer.MAX_VALUE;
+        for (int i = vFrom; i < vTo; i++) {
+            for (int j = wFrom; j < wTo; j++) {
+                bound = Math.min(bound, lower(v[i], w[j]));
+            }
+        }
+        return bound;
+    }
+
+    private int lower(int v, int w) {
+        int bound = 0;
+        for (int i = 0; i < landmarks.length; i++) {
+            int a = get(around, v, i);
+            int b = get(around, w, i);
+            if ((a != UNKNOWN) && (b != UNKNOWN)) {
+                bound = Math.max(bound, Math.abs(a - b));
+            }
+        }
+        return bound;
+    }
+
+    // number of landmarks
+    public int landmarks() {
+        return landmarks.length;
+    }
+
+    // the i-th landmark vertex
+    public int landmark(int i) {
+        if ((i < 0) || (i >= landmarks.length)) {
+            throw new IllegalArgumentException("arguments outside range");
+        }
+        return landmarks[i];
+    }
+
+    // time taken to build the sketch, or to update it from the previous one, in milliseconds
+    public long buildMillis() {
+        return buildMillis;
+    }
+
+    // approximate heap footprint of the distance tables, in bytes
+    public long memoryBytes() {
+        return 4L * landmarks.length + up.length + around.length;
+    }
+
+    @Override
+    public String toString() {
+        return "LandmarkSketch[landmarks=" + landmarks.length + ", bytes=" + memoryBytes() + ", buildMillis="
+                + buildMillis + "]";
+    }
+
+    // compares the bounds against exact SAP lengths for the given number of random vertex pairs
+    public Evaluation evaluate(int pairs, long seed) {
+        if (pairs <= 0) {
+            throw new IllegalArgumentException("pair count must be positive");
+        }
+        Random random = new Random(seed);
+        int[] v = new int[pairs];
+        int[] w = new int[pairs];
+        for (int i = 0; i < pairs; i++) {
+            v[i] = random.nextInt(graph.V());
+            w[i] = random.nextInt(graph.V());
+        }
+        SAP sap = new SAP(graph);
+        Evaluation e = new Evaluation();
+        int[] exact = new int[pairs];
+        long start = System.nanoTime();
+        for (int i = 0; i < pairs; i++) {
+            exact[i] = sap.length(v[i], w[i]);
+        }
+        e.searchNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < pairs; i++) {
+            if (length(v[i], w[i]) != exact[i]) {
+                throw new IllegalStateException("bounded search disagrees with SAP for " + v[i] + " " + w[i]);
+            }
+        }
+        e.boundedNanos = System.nanoTime() - start;
+        for (int i = 0; i < pairs; i++) {
+            if (exact[i] == -1) {
+                continue;
+            }
+            e.paths++;
+            int upper = upperBound(v[i], w[i]);
+            int lower = lowerBound(v[i], w[i]);
+            if (upper == -1) {
+                e.unbounded++;
+                continue;
+            }
+            int error = upper - exact[i];
+            e.upperError += error;
+            e.maxUpperError = Math.max(e.maxUpperError, error);
+            e.relativeError += (exact[i] == 0) ? 0 : (double) error / exact[i];
+            if (error == 0) {
+                e.exactUpper++;
+            }
+            e.lowerError += exact[i] - lower;
+            if (lower == upper) {
+                e.settled++;
+            }
+        }
+        return e;
+    }
+
+    // how close the bounds came to the exact lengths in evaluate()
+    public static final class Evaluation {
+        private int paths;
+        private int unbounded;
+        private int exactUpper;
+        private int settled;
+        private int maxUpperError;
+        private long upperError;
+        private long lowerError;
+        private double relativeError;
+        private long searchNanos;
+        private long boundedNanos;
+
+        private Evaluation() {
+        }
+
+        // sampled pairs joined by an ancestral path
+        public int paths() {
+            return paths;
+        }
+
+        // pairs with a path but no common landmark, so no upper bound
+        public int unbounded() {
+            return unbounded;
+        }
+
+        // fraction of bounded pairs whose upper bound is exact
+        public double exactUpperRate() {
+            return (double) exactUpper / Math.max(1, paths - unbounded);
+        }
+
+        // fraction of bounded pairs whose bounds meet, answered without a search
+        public double settledRate() {
+            return (double) settled / Math.max(1, paths - unbounded);
+        }
+
+        public double meanUpperError() {
+            return (double) upperError / Math.max(1, paths - unbounded);
+        }
+
+        public double meanRelativeUpperError() {
+            return relativeError / Math.max(1, paths - unbounded);
+        }
+
+        public int maxUpperError() {
+            return maxUpperError;
+        }
+
+        public double meanLowerError() {
+            return (double) lowerError / Math.max(1, paths - unbounded);
+        }
+
+        // time for the exact lengths with SAP and with the bounded search, in milliseconds
+        public double searchMillis() {
+            return searchNanos / 1e6;
+        }
+
+        public double boundedMillis() {
+            return boundedNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("paths=%d unbounded=%d exactUpper=%.3f settled=%.3f meanUpperError=%.3f "
+                    + "meanRelativeUpperError=%.3f maxUpperError=%d meanLowerError=%.3f searchMillis=%.1f "
+                    + "boundedMillis=%.1f", paths, unbounded, exactUpperRate(), settledRate(), meanUpperError(),
+                    meanRelativeUpperError(), maxUpperError, meanLowerError(), searchMillis(), boundedMillis());
+        }
+    }
+
+    private static Digraph checkNull(Digraph G) {
+        if (G == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        return G;
+    }
+
+    private void checkRange(int v) {
+        if ((v < 0) || (v >= graph.V())) {
+            throw new IllegalArgumentException("arguments outside range");
+        }
+    }
+
+    // evaluates a sketch of the digraph in args[0] with args[1] landmarks (default 16) on
+    // args[2] random pairs (default 10000)
+    public static void main(String[] args) {
+        Digraph G = new Digraph(new In(args[0]));
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+        int pairs = (args.length > 2) ? Integer.parseInt(args[2]) : 10000;
+        LandmarkSketch sketch = new LandmarkSketch(G, count);
+        StdOut.println(sketch);
+        StdOut.println(sketch.evaluate(pairs, 1));
+    }
+}
@@ -14,8 +14,9 @@ public class Outcast {
     public String outcast(String[] nouns) {
         String outcast = null;
         int maxdis = 0;
+        int[][] distances = w.distanceMatrix(nouns);
         for (int i = 0; i < nouns.length; i++) {
-            int dis = getdis(i, nouns);
+            int dis = getdis(distances[i]);
             if (dis >= maxdis) {
                 maxdis = dis;
                 outcast = nouns[i];
@@ -24,10 +25,10 @@ public class Outcast {
         return outcast;
     }
     
-    private int getdis(int index, String[] nouns) {
+    private int getdis(int[] row) {
         int dis = 0;
-        for (int i = 0; i < nouns.length; i++) {
-            dis += w.distance(nouns[i], nouns[index]);
+        for (int d : row) {
+            dis += d;
         }
         return dis;
     }
@@ -0,0 +1,207 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded LRU cache of shortest ancestral path results, keyed on the unordered pair of
+// synset sets, so (nounA, nounB), (nounB, nounA) and any synonyms of either share an entry.
+// The cache is split into independently locked segments, each an access-ordered
+// LinkedHashMap holding its share of the capacity, so concurrent queries for different
+// pairs rarely contend; recency is tracked per segment. When the graph changes, entries
+// whose synsets gained ancestors are invalidated and the rest stay cached.
+public final class QueryCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final int capacity;
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    // version of the graph the cached results belong to; a result computed against another
+    // version is not cached, so a query still running on the old graph cannot store a pair
+    // after the invalidation meant to remove it
+    private final AtomicLong version = new AtomicLong();
+
+    QueryCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        int count = Math.min(SEGMENTS, capacity);
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // spread the capacity so the segments add up to exactly capacity
+            segments[i] = new Segment(capacity / count + ((i < capacity % count) ? 1 : 0));
+        }
+    }
+
+    // cached result for the pair; null on a miss
+    SAP.AncestralPath get(Key key) {
+        Segment segment = segmentFor(key);
+        SAP.AncestralPath path;
+        synchronized (segment) {
+            path = segment.get(key);
+        }
+        if (path == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return path;
+    }
+
+    // caches the result if it was computed against the current graph version
+    void put(Key key, SAP.AncestralPath path, long version) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            if (this.version.get() == version) {
+                segment.put(key, path);
+            }
+        }
+    }
+
+    // moves the cache to a new graph version, dropping every pair with a synset id marked
+    // in stale; ids beyond stale.length are kept
+    void invalidate(boolean[] stale, long version) {
+        this.version.set(version);
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<Key> keys = segment.keySet().iterator();
+                while (keys.hasNext()) {
+                    Key key = keys.next();
+                    if (key.touches(stale)) {
+                        keys.remove();
+                        invalidations.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    private Segment segmentFor(Key key) {
+        int h = key.hash;
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    // maximum number of cached pairs
+    public int capacity() {
+        return capacity;
+    }
+
+    // number of cached pairs
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    // pairs dropped because the graph changed under them
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache[size=" + size() + "/" + capacity + ", hits=" + hits() + ", misses=" + misses()
+                + ", evictions=" + evictions() + ", invalidations=" + invalidations() + "]";
+    }
+
+    private final class Segment extends LinkedHashMap<Key, SAP.AncestralPath> {
+        private static final long serialVersionUID = 1L;
+        private final int limit;
+
+        Segment(int limit) {
+            super(16, 0.75f, true);
+            this.limit = limit;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, SAP.AncestralPath> eldest) {
+            if (size() > limit) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // unordered pair of synset id sets, each sorted ascending
+    static final class Key {
+        private final int[] a;
+        private final int[] b;
+        private final int hash;
+
+        Key(int[] x, int[] y) {
+            if (compare(x, y) <= 0) {
+                a = x;
+                b = y;
+            } else {
+                a = y;
+                b = x;
+            }
+            hash = 31 * Arrays.hashCode(a) + Arrays.hashCode(b);
+        }
+
+        private static int compare(int[] x, int[] y) {
+            int n = Math.min(x.length, y.length);
+            for (int i = 0; i < n; i++) {
+                if (x[i] != y[i]) {
+                    return (x[i] < y[i]) ? -1 : 1;
+                }
+            }
+            return x.length - y.length;
+        }
+
+        private boolean touches(boolean[] stale) {
+            for (int x : a) {
+                if ((x < stale.length) && stale[x]) {
+                    return true;
+                }
+            }
+            for (int x : b) {
+                if ((x < stale.length) && stale[x]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return (hash == that.hash) && Arrays.equals(a, that.a) && Arrays.equals(b, that.b);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
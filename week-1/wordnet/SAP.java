@@ -1,97 +1,128 @@
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.Digraph;
-import edu.princeton.cs.algs4.BreadthFirstDirectedPaths;
 import edu.princeton.cs.algs4.StdIn;
 import edu.princeton.cs.algs4.StdOut;
+import java.util.stream.IntStream;
 
+// Safe for concurrent use: the graph is an immutable CompactDigraph, and
+// each query runs on the calling thread's own SearchContext.
 public class SAP {
 
-    private final Digraph graph;
+    private final CompactDigraph graph;
     
     // constructor takes a digraph (not necessarily a DAG)
     public SAP(Digraph G) {
         if (G == null) {
             throw new IllegalArgumentException("arguments cannot be null");
         }
-        graph = new Digraph(G);
+        graph = new CompactDigraph(G);
+    }
+
+    // shares the given graph, which is immutable
+    SAP(CompactDigraph G) {
+        if (G == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        graph = G;
     }
 
     // length of shortest ancestral path between v and w; -1 if no such path
     public int length(int v, int w) {
-        int length = -1;
-        if ((v < 0) || (v >= graph.V()) || (w < 0) || (w >= graph.V())) {
-            throw new IllegalArgumentException("arguments outside range");
-        }
-        BreadthFirstDirectedPaths vbfdp = new BreadthFirstDirectedPaths(graph, v);
-        BreadthFirstDirectedPaths wbfdp = new BreadthFirstDirectedPaths(graph, w);
-        for (int i = 0; i < graph.V(); i++) {
-            if (vbfdp.hasPathTo(i) && wbfdp.hasPathTo(i)) {
-                int len = vbfdp.distTo(i) + wbfdp.distTo(i);
-                if ((length == -1) || (len < length)) {
-                    length = len;
-                }
-            }
-        }
-        return length;
+        return search(v, w).length();
     }
 
     // a common ancestor of v and w that participates in a shortest ancestral path; -1 if no such path
     public int ancestor(int v, int w) {
-        int length = -1;
-        int ca = -1;
-        if ((v < 0) || (v >= graph.V()) || (w < 0) || (w >= graph.V())) {
-            throw new IllegalArgumentException("arguments outside range");
-        }
-        BreadthFirstDirectedPaths vbfdp = new BreadthFirstDirectedPaths(graph, v);
-        BreadthFirstDirectedPaths wbfdp = new BreadthFirstDirectedPaths(graph, w);
-        for (int i = 0; i < graph.V(); i++) {
-            if (vbfdp.hasPathTo(i) && wbfdp.hasPathTo(i)) {
-                int len = vbfdp.distTo(i) + wbfdp.distTo(i);
-                if ((length == -1) || (len < length)) {
-                    length = len;
-                    ca = i;
-                }
-            }
-        }
-        return ca;
+        return search(v, w).ancestor();
     }
 
     // length of shortest ancestral path between any vertex in v and any vertex in w; -1 if no such path
     public int length(Iterable<Integer> v, Iterable<Integer> w) {
-        int length = -1;
-        checkNull(v);
-        checkNull(w);
-        BreadthFirstDirectedPaths vbfdp = new BreadthFirstDirectedPaths(graph, v);
-        BreadthFirstDirectedPaths wbfdp = new BreadthFirstDirectedPaths(graph, w);
-        for (int i = 0; i < graph.V(); i++) {
-            if (vbfdp.hasPathTo(i) && wbfdp.hasPathTo(i)) {
-                int len = vbfdp.distTo(i) + wbfdp.distTo(i);
-                if ((length == -1) || (len < length)) {
-                    length = len;
-                }
-            }
-        }
-        return length;
+        return search(v, w).length();
     }
 
     // a common ancestor that participates in shortest ancestral path; -1 if no such path
     public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
-        int length = -1;
-        int ca = -1;
+        return search(v, w).ancestor();
+    }
+
+    // length and common ancestor of a shortest ancestral path between v and w, from a single search
+    public AncestralPath path(int v, int w) {
+        SearchContext context = search(v, w);
+        return new AncestralPath(context.length(), context.ancestor());
+    }
+
+    // length and common ancestor of a shortest ancestral path between any vertex in v and any vertex in w
+    public AncestralPath path(Iterable<Integer> v, Iterable<Integer> w) {
+        SearchContext context = search(v, w);
+        return new AncestralPath(context.length(), context.ancestor());
+    }
+
+    // lengths[i] == length(v[i], w[i]); the queries are spread across the common ForkJoin pool
+    public int[] lengths(int[] v, int[] w) {
+        checkBatch(v, w);
+        int[] lengths = new int[v.length];
+        IntStream.range(0, v.length).parallel().forEach(i -> lengths[i] = search(v[i], w[i]).length());
+        return lengths;
+    }
+
+    // ancestors[i] == ancestor(v[i], w[i]); the queries are spread across the common ForkJoin pool
+    public int[] ancestors(int[] v, int[] w) {
+        checkBatch(v, w);
+        int[] ancestors = new int[v.length];
+        IntStream.range(0, v.length).parallel().forEach(i -> ancestors[i] = search(v[i], w[i]).ancestor());
+        return ancestors;
+    }
+
+    private void checkBatch(int[] v, int[] w) {
+        if ((v == null) || (w == null)) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        if (v.length != w.length) {
+            throw new IllegalArgumentException("arguments differ in length");
+        }
+        for (int i = 0; i < v.length; i++) {
+            checkRange(v[i]);
+            checkRange(w[i]);
+        }
+    }
+
+    // path between any of v[vFrom..vTo) and any of w[wFrom..wTo), for callers that keep
+    // vertex sets as ranges of a shared int array; the ids are assumed to be in range
+    AncestralPath path(int[] v, int vFrom, int vTo, int[] w, int wFrom, int wTo) {
+        SearchContext context = SearchContext.begin(graph.V());
+        for (int i = vFrom; i < vTo; i++) {
+            context.v.seed(v[i]);
+        }
+        for (int i = wFrom; i < wTo; i++) {
+            context.w.seed(w[i]);
+        }
+        context.run(graph);
+        return new AncestralPath(context.length(), context.ancestor());
+    }
+
+    private SearchContext search(int v, int w) {
+        checkRange(v);
+        checkRange(w);
+        SearchContext context = SearchContext.begin(graph.V());
+        context.v.seed(v);
+        context.w.seed(w);
+        context.run(graph);
+        return context;
+    }
+
+    private SearchContext search(Iterable<Integer> v, Iterable<Integer> w) {
         checkNull(v);
         checkNull(w);
-        BreadthFirstDirectedPaths vbfdp = new BreadthFirstDirectedPaths(graph, v);
-        BreadthFirstDirectedPaths wbfdp = new BreadthFirstDirectedPaths(graph, w);
-        for (int i = 0; i < graph.V(); i++) {
-            if (vbfdp.hasPathTo(i) && wbfdp.hasPathTo(i)) {
-                int len = vbfdp.distTo(i) + wbfdp.distTo(i);
-                if ((length == -1) || (len < length)) {
-                    length = len;
-                    ca = i;
-                }
-            }
+        SearchContext context = SearchContext.begin(graph.V());
+        for (int i : v) {
+            context.v.seed(i);
         }
-        return ca;
+        for (int i : w) {
+            context.w.seed(i);
+        }
+        context.run(graph);
+        return context;
     }
     
     private void checkNull(Iterable<Integer> v) {
@@ -102,6 +133,32 @@ public class SAP {
             if (i == null) {
                 throw new IllegalArgumentException("arguments cannot be null");
             }
+            checkRange(i);
+        }
+    }
+
+    private void checkRange(int v) {
+        if ((v < 0) || (v >= graph.V())) {
+            throw new IllegalArgumentException("arguments outside range");
+        }
+    }
+
+    // result of a shortest ancestral path query; length and ancestor are -1 if no such path
+    public static final class AncestralPath {
+        private final int length;
+        private final int ancestor;
+
+        AncestralPath(int length, int ancestor) {
+            this.length = length;
+            this.ancestor = ancestor;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public int ancestor() {
+            return ancestor;
         }
     }
 
@@ -113,9 +170,8 @@ public class SAP {
         while (!StdIn.isEmpty()) {
             int v = StdIn.readInt();
             int w = StdIn.readInt();
-            int length   = sap.length(v, w);
-            int ancestor = sap.ancestor(v, w);
-            StdOut.printf("length = %d, ancestor = %d\n", length, ancestor);
+            AncestralPath path = sap.path(v, w);
+            StdOut.printf("length = %d, ancestor = %d\n", path.length(), path.ancestor());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,188 @@
+import java.util.Arrays;
+
+// Per-thread scratch state for ancestral searches. Visited marks are epoch stamps, so
+// starting a new search is a single increment instead of clearing V-sized arrays, and the
+// queues are plain int arrays, so a query in steady state allocates nothing and only
+// touches the vertices it visits.
+final class SearchContext {
+
+    private static final ThreadLocal<SearchContext> CONTEXT = new ThreadLocal<SearchContext>() {
+        @Override
+        protected SearchContext initialValue() {
+            return new SearchContext();
+        }
+    };
+
+    final Side v = new Side();
+    final Side w = new Side();
+    private int epoch;
+    private int length;
+    private int ancestor;
+
+    private SearchContext() {
+    }
+
+    // the calling thread's context, ready for a new search over a graph with V vertices
+    static SearchContext begin(int V) {
+        SearchContext context = CONTEXT.get();
+        context.v.ensureCapacity(V);
+        context.w.ensureCapacity(V);
+        if (context.epoch == Integer.MAX_VALUE) {
+            context.v.clear();
+            context.w.clear();
+            context.epoch = 0;
+        }
+        context.epoch++;
+        context.v.reset();
+        context.w.reset();
+        context.length = -1;
+        context.ancestor = -1;
+        return context;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int ancestor() {
+        return ancestor;
+    }
+
+    // starts the search from a known ancestral path, so run() only explores levels that
+    // could produce a shorter one; call before seeding
+    void bound(int length, int ancestor) {
+        this.length = length;
+        this.ancestor = ancestor;
+    }
+
+    // Breadth-first search from both sets of vertices at once. The two sides take turns
+    // expanding one whole level (smaller frontier first) and a side stops as soon as its
+    // next level cannot produce a path shorter than the best common ancestor found so far,
+    // so a query only touches the neighbourhood of the shortest ancestral path instead of
+    // every vertex reachable from v and w.
+    void run(CompactDigraph graph) {
+        while (true) {
+            boolean vLive = v.canImprove(length);
+            boolean wLive = w.canImprove(length);
+            if (!vLive && !wLive) {
+                return;
+            }
+            if (vLive && (!wLive || v.frontier() <= w.frontier())) {
+                v.expand(graph, w);
+            } else {
+                w.expand(graph, v);
+            }
+        }
+    }
+
+    private void offer(int x, int len) {
+        if ((length == -1) || (len < length)) {
+            length = len;
+            ancestor = x;
+        }
+    }
+
+    final class Side {
+        private int[] stamp = new int[0];
+        private int[] dist = new int[0];
+        private int[] queue = new int[0];
+        private int head;
+        private int tail;
+        private int depth;
+
+        private void ensureCapacity(int V) {
+            if (stamp.length < V) {
+                stamp = new int[V];
+                dist = new int[V];
+                queue = new int[V];
+            }
+        }
+
+        private void clear() {
+            Arrays.fill(stamp, 0);
+        }
+
+        private void reset() {
+            head = 0;
+            tail = 0;
+            depth = 0;
+        }
+
+        private boolean marked(int x) {
+            return stamp[x] == epoch;
+        }
+
+        void seed(int s) {
+            if (!marked(s)) {
+                stamp[s] = epoch;
+                dist[s] = 0;
+                queue[tail++] = s;
+                Side other = (this == v) ? w : v;
+                if (other.marked(s)) {
+                    offer(s, other.dist[s]);
+                }
+            }
+        }
+
+        // breadth-first search from the seeded vertices until every reachable vertex is visited
+        void exhaust(CompactDigraph graph) {
+            Side other = (this == v) ? w : v;
+            while (head < tail) {
+                expand(graph, other);
+            }
+        }
+
+        // number of vertices visited so far, in breadth-first order
+        int visited() {
+            return tail;
+        }
+
+        int vertex(int i) {
+            return queue[i];
+        }
+
+        // distance recorded for x in this search; -1 if x has not been visited
+        int distTo(int x) {
+            return marked(x) ? dist[x] : -1;
+        }
+
+        // records d as the distance to x unless a shorter one is already recorded; unlike
+        // seed() this does not queue x, for callers that only use the side as a distance map
+        void relax(int x, int d) {
+            if (!marked(x) || (d < dist[x])) {
+                stamp[x] = epoch;
+                dist[x] = d;
+            }
+        }
+
+        private int frontier() {
+            return tail - head;
+        }
+
+        // vertices discovered by the next level are depth + 1 away from this side
+        private boolean canImprove(int best) {
+            return (head < tail) && ((best == -1) || (depth + 1 < best));
+        }
+
+        private void expand(CompactDigraph graph, Side other) {
+            int[] offsets = graph.offsets();
+            int[] targets = graph.targets();
+            int end = tail;
+            while (head < end) {
+                int x = queue[head++];
+                for (int e = offsets[x]; e < offsets[x + 1]; e++) {
+                    int y = targets[e];
+                    if (!marked(y)) {
+                        stamp[y] = epoch;
+                        dist[y] = depth + 1;
+                        queue[tail++] = y;
+                        if (other.marked(y)) {
+                            offer(y, dist[y] + other.dist[y]);
+                        }
+                    }
+                }
+            }
+            depth++;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Immutable list of strings stored as one UTF-8 byte array plus start offsets, instead of
+// one String object (header, array, hash) per entry. Strings are decoded on access; a table
+// built in UTF-8 byte order can be binary searched without encoding the key.
+final class StringTable implements Iterable<String> {
+
+    private final int[] offsets;
+    private final byte[] bytes;
+
+    StringTable(String[] strings) {
+        byte[][] encoded = new byte[strings.length][];
+        offsets = new int[strings.length + 1];
+        for (int i = 0; i < strings.length; i++) {
+            encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + encoded[i].length;
+        }
+        bytes = new byte[offsets[strings.length]];
+        for (int i = 0; i < strings.length; i++) {
+            System.arraycopy(encoded[i], 0, bytes, offsets[i], encoded[i].length);
+        }
+    }
+
+    // takes ownership of the arrays
+    StringTable(int[] offsets, byte[] bytes) {
+        if ((offsets.length == 0) || (offsets[0] != 0) || (offsets[offsets.length - 1] != bytes.length)) {
+            throw new IllegalArgumentException("malformed string table");
+        }
+        this.offsets = offsets;
+        this.bytes = bytes;
+    }
+
+    int size() {
+        return offsets.length - 1;
+    }
+
+    String get(int i) {
+        return new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    // index of s in a table sorted by UTF-8 bytes; -1 if absent
+    int find(String s) {
+        int i = search(s);
+        return (i < 0) ? -1 : i;
+    }
+
+    // as Arrays.binarySearch: index of s if present, otherwise -(insertion point) - 1
+    int search(String s) {
+        int lo = 0;
+        int hi = size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, s);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    // a copy with s inserted before entry i (i == size() appends)
+    StringTable withInserted(int i, String s) {
+        byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+        int n = size();
+        int[] o = new int[n + 2];
+        System.arraycopy(offsets, 0, o, 0, i + 1);
+        for (int x = i; x <= n; x++) {
+            o[x + 1] = offsets[x] + encoded.length;
+        }
+        byte[] b = new byte[bytes.length + encoded.length];
+        System.arraycopy(bytes, 0, b, 0, offsets[i]);
+        System.arraycopy(encoded, 0, b, offsets[i], encoded.length);
+        System.arraycopy(bytes, offsets[i], b, offsets[i] + encoded.length, bytes.length - offsets[i]);
+        return new StringTable(o, b);
+    }
+
+    // compares entry i with s in code point order, decoding the UTF-8 bytes in place
+    private int compare(int i, String s) {
+        int p = offsets[i];
+        int end = offsets[i + 1];
+        int j = 0;
+        while ((p < end) && (j < s.length())) {
+            int b = bytes[p] & 0xFF;
+            int x;
+            if (b < 0x80) {
+                x = b;
+                p += 1;
+            } else if (b < 0xE0) {
+                x = ((b & 0x1F) << 6) | (bytes[p + 1] & 0x3F);
+                p += 2;
+            } else if (b < 0xF0) {
+                x = ((b & 0x0F) << 12) | ((bytes[p + 1] & 0x3F) << 6) | (bytes[p + 2] & 0x3F);
+                p += 3;
+            } else {
+                x = ((b & 0x07) << 18) | ((bytes[p + 1] & 0x3F) << 12) | ((bytes[p + 2] & 0x3F) << 6)
+                        | (bytes[p + 3] & 0x3F);
+                p += 4;
+            }
+            int y = s.codePointAt(j);
+            if (x != y) {
+                return Integer.compare(x, y);
+            }
+            j += Character.charCount(y);
+        }
+        return Integer.compare(end - p, s.length() - j);
+    }
+
+    // approximate heap footprint of the arrays, in bytes
+    long memoryBytes() {
+        return 4L * offsets.length + bytes.length;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(i++);
+            }
+        };
+    }
+}
@@ -1,77 +1,270 @@
-import edu.princeton.cs.algs4.In;
-import edu.princeton.cs.algs4.Digraph;
 import edu.princeton.cs.algs4.StdIn;
 import edu.princeton.cs.algs4.StdOut;
-import java.util.HashMap;
-import java.util.Map;
-import edu.princeton.cs.algs4.Bag;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.io.IOException;
+import java.nio.file.Path;
 
+// Safe for concurrent queries and updates. The graph, noun tables and derived index form
+// one immutable State that every query reads once, so a query always sees a consistent
+// graph; addSynset() and addHypernym() build the next State from the current one, sharing
+// or copying its arrays and recomputing only what the change affects, and publish it with
+// a single volatile write.
 public class WordNet {
-    
-    private int synsetCount = 0;
-    private Digraph d;
-    private final Map<String, Bag<Integer>> map = new HashMap<>();
-    private final Map<Integer, String> synsetMap = new HashMap<>();
-    private final SAP sap;
+
+    private volatile State state;
+    private final QueryCache cache;
 
     // constructor takes the name of the two input files
     public WordNet(String synsets, String hypernyms) {
-        if ((synsets == null) || (hypernyms == null)) {
-            throw new IllegalArgumentException("arguments cannot be null");
-        }
+        this(synsets, hypernyms, 0);
+    }
+
+    // as above, caching up to cacheCapacity noun pair results (0 disables the cache)
+    public WordNet(String synsets, String hypernyms, int cacheCapacity) {
+        this(synsets, hypernyms, cacheCapacity, false);
+    }
+
+    // as above, answering queries from a precomputed AncestorIndex instead of searching
+    // the graph if ancestorIndex is true
+    public WordNet(String synsets, String hypernyms, int cacheCapacity, boolean ancestorIndex) {
         // The constructor should throw a java.lang.IllegalArgumentException if the input does not correspond to a rooted DAG.
-        parseSynsets(synsets);
-        parseHypernyms(hypernyms);
-        sap = new SAP(d);
-    }
-    
-    private void parseSynsets(String synsets) {
-        In in = new In(synsets);
-        while (!in.isEmpty()) {
-            synsetCount++;
-            String line = in.readLine();
-            String[] fields = line.split(",");
-            int synsetId = Integer.parseInt(fields[0]);
-            synsetMap.put(synsetId, fields[1]);
-            String[] nouns = fields[1].split("\\s+");
-            for (String noun : nouns) {
-                if (map.get(noun) == null) {
-                    Bag<Integer> bag = new Bag<Integer>();
-                    bag.add(synsetId);
-                    map.put(noun, bag);
-                } else {
-                    map.get(noun).add(synsetId);
-                }
+        this(new WordNetParser().parse(synsets, hypernyms), cacheCapacity, ancestorIndex);
+    }
+
+    private WordNet(WordNetSnapshot snapshot, int cacheCapacity, boolean ancestorIndex) {
+        if (cacheCapacity < 0) {
+            throw new IllegalArgumentException("cache capacity cannot be negative");
+        }
+        cache = (cacheCapacity == 0) ? null : new QueryCache(cacheCapacity);
+        state = new State(snapshot.graph, snapshot.synsets, snapshot.glosses, snapshot.nouns, snapshot.idOffsets,
+                snapshot.synsetIds, ancestorIndex ? new AncestorIndex(snapshot.graph) : null, null, 0);
+    }
+
+    // One version of the taxonomy. Never modified once published.
+    private static final class State {
+        final CompactDigraph graph;
+        // synsets.get(id) is the second field of synsets.txt for synset id
+        final StringTable synsets;
+        // glosses.get(id) is the third field, empty if the line has none
+        final StringTable glosses;
+        // nouns sorted by UTF-8 bytes; the synset ids of nouns.get(i) are
+        // synsetIds[idOffsets[i]] up to synsetIds[idOffsets[i + 1]], ascending
+        final StringTable nouns;
+        final int[] idOffsets;
+        final int[] synsetIds;
+        final SAP sap;
+        final AncestorIndex index;
+        final LandmarkSketch sketch;
+        // bumped whenever an existing synset gains ancestors, which is what invalidates
+        // cached results; adding a synset leaves it unchanged
+        final long version;
+
+        State(CompactDigraph graph, StringTable synsets, StringTable glosses, StringTable nouns, int[] idOffsets,
+                int[] synsetIds, AncestorIndex index, LandmarkSketch sketch, long version) {
+            this.graph = graph;
+            this.synsets = synsets;
+            this.glosses = glosses;
+            this.nouns = nouns;
+            this.idOffsets = idOffsets;
+            this.synsetIds = synsetIds;
+            this.sap = new SAP(graph);
+            this.index = index;
+            this.sketch = sketch;
+            this.version = version;
+        }
+
+        // position of noun in the noun table
+        int nounIndex(String noun) {
+            int i = nouns.find(noun);
+            // The distance() and sap() methods should throw a java.lang.IllegalArgumentException unless both of the noun arguments are WordNet nouns.
+            if (i == -1) {
+                throw new IllegalArgumentException("arguments not wordnet nouns");
+            }
+            return i;
+        }
+
+        SAP.AncestralPath search(int a, int b) {
+            if (index != null) {
+                return index.path(synsetIds, idOffsets[a], idOffsets[a + 1], synsetIds, idOffsets[b], idOffsets[b + 1]);
             }
+            if (sketch != null) {
+                return sketch.path(synsetIds, idOffsets[a], idOffsets[a + 1], synsetIds, idOffsets[b], idOffsets[b + 1]);
+            }
+            return sap.path(synsetIds, idOffsets[a], idOffsets[a + 1], synsetIds, idOffsets[b], idOffsets[b + 1]);
+        }
+    }
+
+    // a WordNet read from a snapshot written by save()
+    public static WordNet load(Path snapshot) throws IOException {
+        return load(snapshot, 0, false);
+    }
+
+    // as above, with the cache and index options of the four-argument constructor
+    public static WordNet load(Path snapshot, int cacheCapacity, boolean ancestorIndex) throws IOException {
+        if (snapshot == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        return new WordNet(WordNetSnapshot.read(snapshot), cacheCapacity, ancestorIndex);
+    }
+
+    // writes the graph, nouns, synsets and glosses to a binary snapshot that load() maps back in
+    // without parsing the text files; an existing file is replaced atomically
+    public void save(Path snapshot) throws IOException {
+        if (snapshot == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
         }
+        State s = state;
+        new WordNetSnapshot(s.graph, s.synsets, s.glosses, s.nouns, s.idOffsets, s.synsetIds).write(snapshot);
+    }
+
+    // adds a synset holding the space-separated nouns in synonyms, with the given hypernyms,
+    // and returns its id; at least one hypernym is required so the graph stays rooted
+    public int addSynset(String synonyms, int... hypernyms) {
+        return addSynset(synonyms, "", hypernyms);
     }
-    
-    private void parseHypernyms(String hypernyms) {
-        In in = new In(hypernyms);
-        d = new Digraph(synsetCount);
-        Set<String> set = new HashSet<String>();
-        while (!in.isEmpty()) {
-            String line = in.readLine();
-            String[] fields = line.split(",");
-            int synsetId = Integer.parseInt(fields[0]);
-            if (fields.length > 1) {
-                set.add(fields[0]);
+
+    // as above, with the given gloss
+    public synchronized int addSynset(String synonyms, String gloss, int... hypernyms) {
+        if ((synonyms == null) || (gloss == null) || (hypernyms == null)) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        State s = state;
+        int id = s.graph.V();
+        if (hypernyms.length == 0) {
+            throw new IllegalArgumentException("a synset needs at least one hypernym");
+        }
+        for (int h : hypernyms) {
+            checkSynset(s, h);
+        }
+        StringTable nouns = s.nouns;
+        int[] idOffsets = s.idOffsets;
+        int[] synsetIds = s.synsetIds;
+        boolean empty = true;
+        for (String noun : synonyms.split(" ")) {
+            if (noun.isEmpty()) {
+                continue;
+            }
+            empty = false;
+            int i = nouns.search(noun);
+            if (i < 0) {
+                i = -i - 1;
+                nouns = nouns.withInserted(i, noun);
+                idOffsets = insert(idOffsets, i + 1, idOffsets[i]);
+            } else if (synsetIds[idOffsets[i + 1] - 1] == id) {
+                // listed twice in synonyms
+                continue;
+            } else {
+                idOffsets = idOffsets.clone();
             }
-            for (int i = 1; i < fields.length; i++) {
-                int hypernymId = Integer.parseInt(fields[i]);
-                d.addEdge(synsetId, hypernymId);
+            // id is the largest synset id, so appending keeps the noun's ids ascending
+            synsetIds = insert(synsetIds, idOffsets[i + 1], id);
+            for (int x = i + 1; x < idOffsets.length; x++) {
+                idOffsets[x]++;
             }
         }
-        if (synsetCount - set.size() != 1) {
-            throw new IllegalArgumentException("not a rooted DAG");
+        if (empty) {
+            throw new IllegalArgumentException("a synset needs at least one noun");
+        }
+        CompactDigraph graph = s.graph.withVertex(hypernyms.clone());
+        // no existing synset gains an ancestor, so the old index lists and cached pairs stay valid
+        AncestorIndex index = (s.index == null) ? null : s.index.update(graph, new boolean[id]);
+        state = new State(graph, s.synsets.withInserted(id, synonyms), s.glosses.withInserted(id, gloss), nouns,
+                idOffsets, synsetIds, index, (s.sketch == null) ? null : s.sketch.update(graph, id), s.version);
+        return id;
+    }
+
+    // adds hypernym as a hypernym of synset; does nothing if the edge already exists
+    public synchronized void addHypernym(int synset, int hypernym) {
+        State s = state;
+        checkSynset(s, synset);
+        checkSynset(s, hypernym);
+        int[] offsets = s.graph.offsets();
+        int[] targets = s.graph.targets();
+        for (int e = offsets[synset]; e < offsets[synset + 1]; e++) {
+            if (targets[e] == hypernym) {
+                return;
+            }
+        }
+        SearchContext context = SearchContext.begin(s.graph.V());
+        context.v.seed(hypernym);
+        context.v.exhaust(s.graph);
+        if (context.v.distTo(synset) != -1) {
+            throw new IllegalArgumentException("hypernym would create a cycle");
+        }
+        // synset and its descendants are the only synsets whose ancestors change
+        boolean[] stale = new boolean[s.graph.V()];
+        context = SearchContext.begin(s.graph.V());
+        context.v.seed(synset);
+        context.v.exhaust(s.graph.reverse());
+        for (int i = 0; i < context.v.visited(); i++) {
+            stale[context.v.vertex(i)] = true;
+        }
+        CompactDigraph graph = s.graph.withEdge(synset, hypernym);
+        AncestorIndex index = (s.index == null) ? null : s.index.update(graph, stale);
+        LandmarkSketch sketch = (s.sketch == null) ? null : s.sketch.update(graph, synset);
+        State next = new State(graph, s.synsets, s.glosses, s.nouns, s.idOffsets, s.synsetIds, index, sketch,
+                s.version + 1);
+        // the cache moves to the new version before the state is published: until then the
+        // pairs left in it hold for both graphs, and a query still on the old graph cannot
+        // store a pair, so no query on the new graph can hit a result of the old one
+        if (cache != null) {
+            cache.invalidate(stale, next.version);
+        }
+        state = next;
+    }
+
+    // Builds a LandmarkSketch with up to count landmarks (roots first, then the synsets with
+    // the most hyponyms), which approximateDistance() answers from and which bounds the
+    // searches of exact queries when there is no ancestor index. Updates keep the landmarks
+    // and only lower the distances the new edges shorten, at the cost of about one search of
+    // the graph; a count of 0 drops it.
+    public synchronized void useLandmarks(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("landmark count cannot be negative");
         }
+        State s = state;
+        LandmarkSketch sketch = (count == 0) ? null : new LandmarkSketch(s.graph, count);
+        state = new State(s.graph, s.synsets, s.glosses, s.nouns, s.idOffsets, s.synsetIds, s.index, sketch,
+                s.version);
+    }
+
+    private static void checkSynset(State s, int id) {
+        if ((id < 0) || (id >= s.graph.V())) {
+            throw new IllegalArgumentException("arguments outside range");
+        }
+    }
+
+    // a copy of a with value inserted at position i
+    private static int[] insert(int[] a, int i, int value) {
+        int[] b = new int[a.length + 1];
+        System.arraycopy(a, 0, b, 0, i);
+        b[i] = value;
+        System.arraycopy(a, i, b, i + 1, a.length - i);
+        return b;
+    }
+
+    // number of synsets; ids run from 0 to synsetCount() - 1
+    public int synsetCount() {
+        return state.graph.V();
+    }
+
+    // the gloss of synset id (third field of synsets.txt), empty if it has none
+    public String gloss(int id) {
+        State s = state;
+        checkSynset(s, id);
+        return s.glosses.get(id);
     }
 
     // returns all WordNet nouns
     public Iterable<String> nouns() {
-        return map.keySet();
+        return state.nouns;
     }
 
     // is the word a WordNet noun?
@@ -79,32 +272,283 @@ public class WordNet {
         if (word == null) {
             throw new IllegalArgumentException("argument cannot be null");
         }
-        return (map.get(word) != null) ? true : false;
+        return state.nouns.find(word) != -1;
     }
 
     // distance between nounA and nounB (defined below)
     public int distance(String nounA, String nounB) {
+        return path(nounA, nounB).length();
+    }
+
+    // a synset (second field of synsets.txt) that is the common ancestor of nounA and nounB
+    // in a shortest ancestral path (defined below)
+    public String sap(String nounA, String nounB) {
+        if ((nounA == null) || (nounB == null)) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        State s = state;
+        return s.synsets.get(path(s, s.nounIndex(nounA), s.nounIndex(nounB)).ancestor());
+    }
+
+    // an estimate of distance(nounA, nounB) in O(landmarks): the length of the shortest
+    // ancestral path through a landmark, never less than the distance; the exact distance
+    // if useLandmarks() has not been called
+    public int approximateDistance(String nounA, String nounB) {
         if ((nounA == null) || (nounB == null)) {
             throw new IllegalArgumentException("arguments cannot be null");
         }
-        // The distance() and sap() methods should throw a java.lang.IllegalArgumentException unless both of the noun arguments are WordNet nouns.
-        if ((!isNoun(nounA)) || (!isNoun(nounB))) {
-            throw new IllegalArgumentException("arguments not wordnet nouns");
+        State s = state;
+        int a = s.nounIndex(nounA);
+        int b = s.nounIndex(nounB);
+        if (s.sketch == null) {
+            return path(s, a, b).length();
         }
-        return sap.length(map.get(nounA), map.get(nounB));
+        int estimate = s.sketch.upper(s.synsetIds, s.idOffsets[a], s.idOffsets[a + 1], s.synsetIds, s.idOffsets[b],
+                s.idOffsets[b + 1]).length();
+        return (estimate == -1) ? path(s, a, b).length() : estimate;
     }
 
-    // a synset (second field of synsets.txt) that is the common ancestor of nounA and nounB
-    // in a shortest ancestral path (defined below)
-    public String sap(String nounA, String nounB) {
+    // length and common ancestor synset id of a shortest ancestral path between nounA and nounB
+    public SAP.AncestralPath path(String nounA, String nounB) {
         if ((nounA == null) || (nounB == null)) {
             throw new IllegalArgumentException("arguments cannot be null");
         }
-        // The distance() and sap() methods should throw a java.lang.IllegalArgumentException unless both of the noun arguments are WordNet nouns.
-        if ((!isNoun(nounA)) || (!isNoun(nounB))) {
-            throw new IllegalArgumentException("arguments not wordnet nouns");
+        State s = state;
+        return path(s, s.nounIndex(nounA), s.nounIndex(nounB));
+    }
+
+    // path between s.nouns.get(a) and s.nouns.get(b)
+    private SAP.AncestralPath path(State s, int a, int b) {
+        if (cache == null) {
+            return s.search(a, b);
+        }
+        QueryCache.Key key = new QueryCache.Key(Arrays.copyOfRange(s.synsetIds, s.idOffsets[a], s.idOffsets[a + 1]),
+                Arrays.copyOfRange(s.synsetIds, s.idOffsets[b], s.idOffsets[b + 1]));
+        SAP.AncestralPath path = cache.get(key);
+        if (path == null) {
+            path = s.search(a, b);
+            cache.put(key, path, s.version);
+        }
+        return path;
+    }
+
+    // the k nouns closest to noun by distance(), nearest first (ties in search order); fewer
+    // if fewer nouns are connected to it. noun itself is left out, its synonyms are not.
+    // A synset's distance is the least number of hypernym edges up from one of noun's
+    // synsets to a common ancestor plus edges back down to it, so the search climbs
+    // level by level and every synset reached on the way up also starts a descent at the
+    // same distance. Both directions advance one level at a time and the search stops as
+    // soon as k nouns are collected, so it only touches the synsets closer than the k-th.
+    public Iterable<String> nearest(String noun, int k) {
+        if (noun == null) {
+            throw new IllegalArgumentException("argument cannot be null");
+        }
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        State s = state;
+        int n = s.nounIndex(noun);
+        List<String> nearest = new ArrayList<String>();
+        if (k == 0) {
+            return nearest;
+        }
+        Set<String> seen = new HashSet<String>();
+        seen.add(noun);
+        int[] offsets = s.graph.offsets();
+        int[] targets = s.graph.targets();
+        CompactDigraph reverse = s.graph.reverse();
+        int[] rOffsets = reverse.offsets();
+        int[] rTargets = reverse.targets();
+        // v records distances going up, w distances of synsets reached on the way down
+        SearchContext context = SearchContext.begin(s.graph.V());
+        Frontier up = new Frontier();
+        Frontier down = new Frontier();
+        for (int i = s.idOffsets[n]; i < s.idOffsets[n + 1]; i++) {
+            context.v.relax(s.synsetIds[i], 0);
+            up.add(s.synsetIds[i]);
+        }
+        for (int d = 0; (up.size > 0) || (down.size > 0); d++) {
+            for (int i = 0; i < up.size; i++) {
+                int x = up.items[i];
+                if (context.w.distTo(x) == -1) {
+                    context.w.relax(x, d);
+                    down.add(x);
+                }
+            }
+            for (int i = 0; i < down.size; i++) {
+                for (String synonym : s.synsets.get(down.items[i]).split(" ")) {
+                    if (!synonym.isEmpty() && seen.add(synonym)) {
+                        nearest.add(synonym);
+                        if (nearest.size() == k) {
+                            return nearest;
+                        }
+                    }
+                }
+            }
+            Frontier nextUp = new Frontier();
+            for (int i = 0; i < up.size; i++) {
+                int x = up.items[i];
+                for (int e = offsets[x]; e < offsets[x + 1]; e++) {
+                    if (context.v.distTo(targets[e]) == -1) {
+                        context.v.relax(targets[e], d + 1);
+                        nextUp.add(targets[e]);
+                    }
+                }
+            }
+            Frontier nextDown = new Frontier();
+            for (int i = 0; i < down.size; i++) {
+                int x = down.items[i];
+                for (int e = rOffsets[x]; e < rOffsets[x + 1]; e++) {
+                    if (context.w.distTo(rTargets[e]) == -1) {
+                        context.w.relax(rTargets[e], d + 1);
+                        nextDown.add(rTargets[e]);
+                    }
+                }
+            }
+            up = nextUp;
+            down = nextDown;
+        }
+        return nearest;
+    }
+
+    // synsets at the current distance of a nearest() search
+    private static final class Frontier {
+        private int[] items = new int[8];
+        private int size;
+
+        void add(int x) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, 2 * size);
+            }
+            items[size++] = x;
+        }
+    }
+
+    // distances[i] == distance(pairs.get(i)[0], pairs.get(i)[1]); the pairs are spread across
+    // the common ForkJoin pool
+    public int[] distances(List<String[]> pairs) {
+        if (pairs == null) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        State s = state;
+        int[] a = new int[pairs.size()];
+        int[] b = new int[pairs.size()];
+        int i = 0;
+        for (String[] pair : pairs) {
+            if ((pair == null) || (pair.length != 2)) {
+                throw new IllegalArgumentException("each pair must hold two nouns");
+            }
+            if ((pair[0] == null) || (pair[1] == null)) {
+                throw new IllegalArgumentException("arguments cannot be null");
+            }
+            a[i] = s.nounIndex(pair[0]);
+            b[i] = s.nounIndex(pair[1]);
+            i++;
+        }
+        int[] distances = new int[a.length];
+        IntStream.range(0, a.length).parallel().forEach(k -> distances[k] = path(s, a[k], b[k]).length());
+        return distances;
+    }
+
+    // distances between every pair of the given nouns; result[i][j] == distance(nouns[i], nouns[j])
+    public int[][] distanceMatrix(String[] nouns) {
+        return distanceMatrix(nouns, ForkJoinPool.commonPool());
+    }
+
+    // as above, spreading the unordered pairs across the given pool
+    public int[][] distanceMatrix(String[] nouns, ForkJoinPool pool) {
+        if ((nouns == null) || (pool == null)) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        State s = state;
+        int[] ids = new int[nouns.length];
+        for (int i = 0; i < nouns.length; i++) {
+            if (nouns[i] == null) {
+                throw new IllegalArgumentException("arguments cannot be null");
+            }
+            ids[i] = s.nounIndex(nouns[i]);
+        }
+        int[][] matrix = new int[nouns.length][nouns.length];
+        DistanceRows task = new DistanceRows(s, ids, matrix, 0, nouns.length);
+        if (task.pairs() < DistanceRows.THRESHOLD) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+        return matrix;
+    }
+
+    // Fills rows [lo, hi) of the upper triangle and mirrors each value below the diagonal,
+    // so every unordered pair is computed once and the diagonal is left at 0. Row i holds
+    // n - 1 - i pairs, so ranges are split at the row that halves the pair count. Every
+    // task reads the same view, so the matrix is consistent even if the graph is updated.
+    private final class DistanceRows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 256;
+        private final State view;
+        private final int[] nouns;
+        private final int[][] matrix;
+        private final int lo;
+        private final int hi;
+
+        DistanceRows(State view, int[] nouns, int[][] matrix, int lo, int hi) {
+            this.view = view;
+            this.nouns = nouns;
+            this.matrix = matrix;
+            this.lo = lo;
+            this.hi = hi;
         }
-        return synsetMap.get(sap.ancestor(map.get(nounA), map.get(nounB)));
+
+        long pairs() {
+            long pairs = 0;
+            for (int i = lo; i < hi; i++) {
+                pairs += nouns.length - 1 - i;
+            }
+            return pairs;
+        }
+
+        @Override
+        protected void compute() {
+            long pairs = pairs();
+            if ((pairs <= THRESHOLD) || (hi - lo == 1)) {
+                for (int i = lo; i < hi; i++) {
+                    for (int j = i + 1; j < nouns.length; j++) {
+                        int dis = path(view, nouns[i], nouns[j]).length();
+                        matrix[i][j] = dis;
+                        matrix[j][i] = dis;
+                    }
+                }
+                return;
+            }
+            int mid = lo;
+            long half = 0;
+            while ((mid < hi - 1) && (half < pairs / 2)) {
+                half += nouns.length - 1 - mid;
+                mid++;
+            }
+            invokeAll(new DistanceRows(view, nouns, matrix, lo, mid), new DistanceRows(view, nouns, matrix, mid, hi));
+        }
+    }
+
+    // approximate heap footprint of the noun, synset and gloss tables, in bytes
+    public long tableBytes() {
+        State s = state;
+        return s.nouns.memoryBytes() + s.synsets.memoryBytes() + s.glosses.memoryBytes() + 4L * s.idOffsets.length + 4L * s.synsetIds.length;
+    }
+
+    // result cache statistics; null if caching is disabled
+    public QueryCache cache() {
+        return cache;
+    }
+
+    // precomputed ancestor lists backing the queries; null if queries search the graph
+    public AncestorIndex ancestorIndex() {
+        return state.index;
+    }
+
+    // landmark distances behind approximateDistance(); null if useLandmarks() has not been called
+    public LandmarkSketch landmarkSketch() {
+        return state.sketch;
     }
 
     // do unit testing of this class
@@ -113,9 +557,8 @@ public class WordNet {
         while (!StdIn.isEmpty()) {
             String v = StdIn.readString();
             String w = StdIn.readString();
-            int length   = wn.distance(v, w);
-            String ancestor = wn.sap(v, w);
-            StdOut.printf("length = %d, ancestor = %s\n", length, ancestor);
+            SAP.AncestralPath path = wn.path(v, w);
+            StdOut.printf("length = %d, ancestor = %s\n", path.length(), wn.state.synsets.get(path.ancestor()));
         }
     }
-}
\ No newline at end of file
+}
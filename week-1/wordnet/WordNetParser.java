@@ -0,0 +1,497 @@
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Byte-level parser for synsets.txt and hypernyms.txt. Each file is memory-mapped (or read
+// whole when it is not a local file), cut into line-aligned chunks, and the chunks are
+// parsed in parallel into int lists of field offsets and ids; no String is created per
+// line or per field. A final sequential merge builds the CSR graph, the synset and gloss
+// tables and the sorted noun table.
+final class WordNetParser {
+
+    private final int chunks;
+    private long bytes;
+    private long nanos;
+
+    WordNetParser() {
+        this(4 * ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    WordNetParser(int chunks) {
+        if (chunks <= 0) {
+            throw new IllegalArgumentException("chunk count must be positive");
+        }
+        this.chunks = chunks;
+    }
+
+    WordNetSnapshot parse(String synsets, String hypernyms) {
+        if ((synsets == null) || (hypernyms == null)) {
+            throw new IllegalArgumentException("arguments cannot be null");
+        }
+        long start = System.nanoTime();
+        ByteBuffer synsetBytes = open(synsets);
+        ByteBuffer hypernymBytes = open(hypernyms);
+        SynsetChunk[] synsetChunks = IntStream.range(0, chunks).parallel()
+                .mapToObj(i -> new SynsetChunk(synsetBytes, lineStart(synsetBytes, i), lineStart(synsetBytes, i + 1)))
+                .toArray(SynsetChunk[]::new);
+        HypernymChunk[] hypernymChunks = IntStream.range(0, chunks).parallel()
+                .mapToObj(i -> new HypernymChunk(hypernymBytes, lineStart(hypernymBytes, i),
+                        lineStart(hypernymBytes, i + 1)))
+                .toArray(HypernymChunk[]::new);
+        WordNetSnapshot snapshot = merge(synsetBytes, synsetChunks, hypernymChunks);
+        bytes = synsetBytes.limit() + hypernymBytes.limit();
+        nanos = System.nanoTime() - start;
+        return snapshot;
+    }
+
+    // size of the input of the last parse, in bytes
+    long bytes() {
+        return bytes;
+    }
+
+    // throughput of the last parse, including the merge
+    double megabytesPerSecond() {
+        return (bytes / 1e6) / (nanos / 1e9);
+    }
+
+    private static ByteBuffer open(String name) {
+        Path path = Paths.get(name);
+        if (!Files.isRegularFile(path)) {
+            // URLs and classpath resources, as In accepts them
+            return ByteBuffer.wrap(new In(name).readAll().getBytes(StandardCharsets.UTF_8));
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // start of the first line beginning at or after the i-th of the nominal chunk boundaries
+    private int lineStart(ByteBuffer buffer, int i) {
+        int n = buffer.limit();
+        if (i == 0) {
+            return 0;
+        }
+        if (i >= chunks) {
+            return n;
+        }
+        // a file shorter than the chunk count puts early boundaries at 0, where there is
+        // no previous byte to look at; those chunks come out empty
+        int p = Math.max(1, (int) ((long) n * i / chunks));
+        while ((p < n) && (buffer.get(p - 1) != '\n')) {
+            p++;
+        }
+        return Math.min(p, n);
+    }
+
+    private static WordNetSnapshot merge(ByteBuffer synsetBytes, SynsetChunk[] synsetChunks,
+            HypernymChunk[] hypernymChunks) {
+        int V = 0;
+        for (SynsetChunk chunk : synsetChunks) {
+            V += chunk.ids.size;
+        }
+
+        // synset strings and glosses, by id
+        int[] fieldStart = new int[V];
+        int[] fieldEnd = new int[V];
+        int[] glossStart = new int[V];
+        int[] glossEnd = new int[V];
+        Arrays.fill(fieldStart, -1);
+        for (SynsetChunk chunk : synsetChunks) {
+            for (int k = 0; k < chunk.ids.size; k++) {
+                int id = checkId(chunk.ids.a[k], V);
+                fieldStart[id] = chunk.fieldStarts.a[k];
+                fieldEnd[id] = chunk.fieldEnds.a[k];
+                glossStart[id] = chunk.glossStarts.a[k];
+                glossEnd[id] = chunk.glossEnds.a[k];
+            }
+        }
+        for (int id = 0; id < V; id++) {
+            if (fieldStart[id] == -1) {
+                throw new IllegalArgumentException("synset ids are not 0 to " + (V - 1));
+            }
+        }
+
+        // nouns: sort every (noun, synset) occurrence by noun bytes, then group
+        int tokens = 0;
+        int tokenBytes = 0;
+        for (SynsetChunk chunk : synsetChunks) {
+            tokens += chunk.nounIds.size;
+            tokenBytes += chunk.nounBytes.size;
+        }
+        byte[] text = new byte[tokenBytes];
+        int[] starts = new int[tokens];
+        int[] ends = new int[tokens];
+        int[] ids = new int[tokens];
+        int t = 0;
+        int b = 0;
+        for (SynsetChunk chunk : synsetChunks) {
+            System.arraycopy(chunk.nounBytes.a, 0, text, b, chunk.nounBytes.size);
+            for (int k = 0; k < chunk.nounIds.size; k++) {
+                starts[t + k] = b + chunk.nounStarts.a[k];
+                ends[t + k] = b + chunk.nounEnds.a[k];
+            }
+            System.arraycopy(chunk.nounIds.a, 0, ids, t, chunk.nounIds.size);
+            t += chunk.nounIds.size;
+            b += chunk.nounBytes.size;
+        }
+        // shuffled, since synsets.txt is often already in alphabetical order
+        int[] order = new int[tokens];
+        Random random = new Random(tokens);
+        for (int i = 0; i < tokens; i++) {
+            int r = random.nextInt(i + 1);
+            order[i] = order[r];
+            order[r] = i;
+        }
+        new TokenSort(text, starts, ends, order).sort(0, tokens - 1, 0);
+        IntList nounOffsets = new IntList();
+        IntList idOffsets = new IntList();
+        ByteList nounBytes = new ByteList();
+        int[] synsetIds = new int[tokens];
+        nounOffsets.add(0);
+        idOffsets.add(0);
+        for (int i = 0; i < tokens; i++) {
+            int k = order[i];
+            synsetIds[i] = ids[k];
+            if ((i == 0) || !sameToken(text, starts, ends, order[i - 1], k)) {
+                if (i > 0) {
+                    idOffsets.add(i);
+                    nounOffsets.add(nounBytes.size);
+                }
+                nounBytes.add(text, starts[k], ends[k]);
+            }
+        }
+        if (tokens > 0) {
+            idOffsets.add(tokens);
+            nounOffsets.add(nounBytes.size);
+        }
+        int[] idOffsetArray = idOffsets.toArray();
+        for (int i = 0; i + 1 < idOffsetArray.length; i++) {
+            Arrays.sort(synsetIds, idOffsetArray[i], idOffsetArray[i + 1]);
+        }
+
+        // hypernyms: counting sort of the edges by source into CSR form
+        int[] offsets = new int[V + 1];
+        boolean[] hasHypernym = new boolean[V];
+        for (HypernymChunk chunk : hypernymChunks) {
+            for (int k = 0; k < chunk.sources.size; k++) {
+                offsets[checkId(chunk.sources.a[k], V) + 1]++;
+                checkId(chunk.targets.a[k], V);
+            }
+            for (int k = 0; k < chunk.hyponyms.size; k++) {
+                hasHypernym[checkId(chunk.hyponyms.a[k], V)] = true;
+            }
+        }
+        for (int v = 0; v < V; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] targets = new int[offsets[V]];
+        int[] next = Arrays.copyOf(offsets, V);
+        for (HypernymChunk chunk : hypernymChunks) {
+            for (int k = 0; k < chunk.sources.size; k++) {
+                targets[next[chunk.sources.a[k]]++] = chunk.targets.a[k];
+            }
+        }
+        int roots = 0;
+        for (int v = 0; v < V; v++) {
+            if (!hasHypernym[v]) {
+                roots++;
+            }
+        }
+        if (roots != 1) {
+            throw new IllegalArgumentException("not a rooted DAG");
+        }
+
+        return new WordNetSnapshot(new CompactDigraph(offsets, targets), strings(synsetBytes, fieldStart, fieldEnd),
+                strings(synsetBytes, glossStart, glossEnd), new StringTable(nounOffsets.toArray(), nounBytes.toArray()),
+                idOffsetArray, synsetIds);
+    }
+
+    // the bytes of buffer in [starts[i], ends[i]) for every i, as one table
+    private static StringTable strings(ByteBuffer buffer, int[] starts, int[] ends) {
+        int n = starts.length;
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] = offsets[i] + ends[i] - starts[i];
+        }
+        byte[] bytes = new byte[offsets[n]];
+        ByteBuffer reader = buffer.duplicate();
+        for (int i = 0; i < n; i++) {
+            reader.position(starts[i]);
+            reader.get(bytes, offsets[i], ends[i] - starts[i]);
+        }
+        return new StringTable(offsets, bytes);
+    }
+
+    private static int checkId(int id, int V) {
+        if ((id < 0) || (id >= V)) {
+            throw new IllegalArgumentException("synset id " + id + " outside range");
+        }
+        return id;
+    }
+
+    private static boolean sameToken(byte[] text, int[] starts, int[] ends, int i, int j) {
+        return Arrays.equals(text, starts[i], ends[i], text, starts[j], ends[j]);
+    }
+
+    // the lines of synsets.txt in [from, to): id, synonym and gloss field offsets and one
+    // (start, end, id) entry per whitespace-separated noun in the synonym field, with the
+    // noun bytes copied into a chunk-local array that the merge step sorts on the heap
+    private static final class SynsetChunk {
+        private final IntList ids = new IntList();
+        private final IntList fieldStarts = new IntList();
+        private final IntList fieldEnds = new IntList();
+        private final IntList glossStarts = new IntList();
+        private final IntList glossEnds = new IntList();
+        private final IntList nounStarts = new IntList();
+        private final IntList nounEnds = new IntList();
+        private final IntList nounIds = new IntList();
+        private final ByteList nounBytes = new ByteList();
+
+        SynsetChunk(ByteBuffer buffer, int from, int to) {
+            int p = from;
+            while (p < to) {
+                int eol = endOfLine(buffer, p, to);
+                if (!blank(buffer, p, eol)) {
+                    line(buffer, p, eol);
+                }
+                p = eol + 1;
+            }
+        }
+
+        private void line(ByteBuffer buffer, int p, int eol) {
+            int comma = indexOf(buffer, ',', p, eol);
+            int id = parseInt(buffer, p, comma);
+            int start = comma + 1;
+            int end = indexOf(buffer, ',', start, eol);
+            // the gloss is the rest of the line after the second comma, empty without one
+            int glossStart = Math.min(end + 1, eol);
+            // the last field of a line keeps the '\r' of a CRLF line end; In.readLine() dropped it
+            int glossEnd = withoutCr(buffer, glossStart, eol);
+            if (end == eol) {
+                end = withoutCr(buffer, start, end);
+            }
+            ids.add(id);
+            fieldStarts.add(start);
+            fieldEnds.add(end);
+            glossStarts.add(glossStart);
+            glossEnds.add(glossEnd);
+            int q = start;
+            while (q < end) {
+                while ((q < end) && whitespace(buffer.get(q))) {
+                    q++;
+                }
+                int nounStart = q;
+                while ((q < end) && !whitespace(buffer.get(q))) {
+                    q++;
+                }
+                if (q > nounStart) {
+                    nounStarts.add(nounBytes.size);
+                    nounBytes.add(buffer, nounStart, q);
+                    nounEnds.add(nounBytes.size);
+                    nounIds.add(id);
+                }
+            }
+        }
+    }
+
+    // the lines of hypernyms.txt in [from, to): one (source, target) entry per edge and the
+    // ids of synsets that list at least one hypernym
+    private static final class HypernymChunk {
+        private final IntList sources = new IntList();
+        private final IntList targets = new IntList();
+        private final IntList hyponyms = new IntList();
+
+        HypernymChunk(ByteBuffer buffer, int from, int to) {
+            int p = from;
+            while (p < to) {
+                int eol = endOfLine(buffer, p, to);
+                if (!blank(buffer, p, eol)) {
+                    line(buffer, p, eol);
+                }
+                p = eol + 1;
+            }
+        }
+
+        private void line(ByteBuffer buffer, int p, int eol) {
+            int comma = indexOf(buffer, ',', p, eol);
+            int id = parseInt(buffer, p, comma);
+            if (comma < eol) {
+                hyponyms.add(id);
+            }
+            while (comma < eol) {
+                int start = comma + 1;
+                comma = indexOf(buffer, ',', start, eol);
+                sources.add(id);
+                targets.add(parseInt(buffer, start, comma));
+            }
+        }
+    }
+
+    // index of the '\n' ending the line that starts at p, or to if the chunk ends first
+    private static int endOfLine(ByteBuffer buffer, int p, int to) {
+        while ((p < to) && (buffer.get(p) != '\n')) {
+            p++;
+        }
+        return p;
+    }
+
+    // to, or to - 1 if [from, to) ends with '\r'
+    private static int withoutCr(ByteBuffer buffer, int from, int to) {
+        return ((to > from) && (buffer.get(to - 1) == '\r')) ? to - 1 : to;
+    }
+
+    private static int indexOf(ByteBuffer buffer, char c, int from, int to) {
+        while ((from < to) && (buffer.get(from) != c)) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean blank(ByteBuffer buffer, int from, int to) {
+        for (int p = from; p < to; p++) {
+            if (!whitespace(buffer.get(p))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean whitespace(byte b) {
+        return (b == ' ') || (b == '\t') || (b == '\r');
+    }
+
+    private static int parseInt(ByteBuffer buffer, int from, int to) {
+        while ((to > from) && whitespace(buffer.get(to - 1))) {
+            to--;
+        }
+        if (from == to) {
+            throw new IllegalArgumentException("missing synset id");
+        }
+        int value = 0;
+        for (int p = from; p < to; p++) {
+            int digit = buffer.get(p) - '0';
+            if ((digit < 0) || (digit > 9) || (value > (Integer.MAX_VALUE - digit) / 10)) {
+                throw new IllegalArgumentException("malformed synset id");
+            }
+            value = 10 * value + digit;
+        }
+        return value;
+    }
+
+    // 3-way radix quicksort of token indices by their unsigned bytes (UTF-8 byte order)
+    private static final class TokenSort {
+        private final byte[] text;
+        private final int[] starts;
+        private final int[] ends;
+        private final int[] order;
+
+        TokenSort(byte[] text, int[] starts, int[] ends, int[] order) {
+            this.text = text;
+            this.starts = starts;
+            this.ends = ends;
+            this.order = order;
+        }
+
+        void sort(int lo, int hi, int d) {
+            while (lo < hi) {
+                int lt = lo, gt = hi;
+                int v = byteAt(order[lo], d);
+                int i = lo + 1;
+                while (i <= gt) {
+                    int t = byteAt(order[i], d);
+                    if (t < v) {
+                        exch(lt++, i++);
+                    } else if (t > v) {
+                        exch(i, gt--);
+                    } else {
+                        i++;
+                    }
+                }
+                sort(lo, lt - 1, d);
+                if (v >= 0) {
+                    sort(lt, gt, d + 1);
+                }
+                lo = gt + 1;
+            }
+        }
+
+        private int byteAt(int token, int d) {
+            int p = starts[token] + d;
+            return (p < ends[token]) ? (text[p] & 0xFF) : -1;
+        }
+
+        private void exch(int i, int j) {
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+    }
+
+    private static final class IntList {
+        private int[] a = new int[16];
+        private int size;
+
+        void add(int x) {
+            if (size == a.length) {
+                a = Arrays.copyOf(a, 2 * size);
+            }
+            a[size++] = x;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(a, size);
+        }
+    }
+
+    private static final class ByteList {
+        private byte[] a = new byte[1024];
+        private int size;
+
+        void add(ByteBuffer buffer, int from, int to) {
+            ensureCapacity(to - from);
+            for (int p = from; p < to; p++) {
+                a[size++] = buffer.get(p);
+            }
+        }
+
+        void add(byte[] bytes, int from, int to) {
+            ensureCapacity(to - from);
+            System.arraycopy(bytes, from, a, size, to - from);
+            size += to - from;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > a.length) {
+                a = Arrays.copyOf(a, Math.max(2 * a.length, size + extra));
+            }
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(a, size);
+        }
+    }
+
+    // reports parse throughput for the given synsets and hypernyms files
+    public static void main(String[] args) {
+        WordNetParser parser = new WordNetParser();
+        for (int run = 0; run < 5; run++) {
+            WordNetSnapshot snapshot = parser.parse(args[0], args[1]);
+            StdOut.printf("%d synsets, %d nouns, %d bytes: %.1f MB/s\n", snapshot.graph.V(), snapshot.nouns.size(),
+                    parser.bytes(), parser.megabytesPerSecond());
+        }
+    }
+}
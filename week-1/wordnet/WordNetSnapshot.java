@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Versioned binary image of a WordNet, written and read through memory-mapped files.
+//
+// Layout (big-endian ints; every section starts on a 4-byte boundary):
+//   magic "WNSS", version
+//   V, E, graph offsets[V + 1], graph targets[E]
+//   synset strings: byte count, offsets[V + 1], UTF-8 bytes
+//   glosses: byte count, offsets[V + 1], UTF-8 bytes
+//   nouns: count N, byte count, offsets[N + 1], UTF-8 bytes,
+//          synset id count, id offsets[N + 1], synset ids
+// Nouns are sorted by their UTF-8 bytes and each noun's synset ids ascending.
+// The mapping only saves parsing: read() bulk-copies every section into heap arrays, which
+// is what the graph, string tables and searches work on, so each JVM holds its own copy
+// and nothing is shared between processes that load the same file. read() checks every
+// count and offset against the file before using it, so a truncated or corrupt file fails
+// with IllegalArgumentException.
+final class WordNetSnapshot {
+
+    private static final int MAGIC = 0x574E5353;
+    private static final int VERSION = 2;
+
+    final CompactDigraph graph;
+    // synsets.get(id) is the second field of synsets.txt for synset id
+    final StringTable synsets;
+    // glosses.get(id) is the third field of synsets.txt for synset id, empty if it has none
+    final StringTable glosses;
+    final StringTable nouns;
+    // the synset ids of nouns.get(i) are synsetIds[idOffsets[i]] up to synsetIds[idOffsets[i + 1]]
+    final int[] idOffsets;
+    final int[] synsetIds;
+
+    WordNetSnapshot(CompactDigraph graph, StringTable synsets, StringTable glosses, StringTable nouns,
+            int[] idOffsets, int[] synsetIds) {
+        this.graph = graph;
+        this.synsets = synsets;
+        this.glosses = glosses;
+        this.nouns = nouns;
+        this.idOffsets = idOffsets;
+        this.synsetIds = synsetIds;
+    }
+
+    // The snapshot is written to a temporary file next to path and moved over it in one
+    // step, so a read() of path at the same time, say by another container starting up,
+    // gets the old snapshot or the new one and never a partly written file.
+    void write(Path path) throws IOException {
+        long size = 4L * (2 + 2 + graph.offsets().length + graph.targets().length)
+                + size(synsets) + size(glosses) + size(nouns) + 4L * (2 + idOffsets.length + synsetIds.length);
+        Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(MAGIC).putInt(VERSION);
+                buffer.putInt(graph.V()).putInt(graph.E());
+                putInts(buffer, graph.offsets());
+                putInts(buffer, graph.targets());
+                putStrings(buffer, synsets);
+                putStrings(buffer, glosses);
+                buffer.putInt(nouns.size());
+                putStrings(buffer, nouns);
+                buffer.putInt(synsetIds.length);
+                putInts(buffer, idOffsets);
+                putInts(buffer, synsetIds);
+                buffer.force();
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            // only still there if writing or moving it failed
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    static WordNetSnapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("snapshot too large");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if ((buffer.remaining() < 8) || (buffer.getInt() != MAGIC)) {
+                throw new IllegalArgumentException("not a WordNet snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported snapshot version " + version);
+            }
+            int V = getCount(buffer);
+            int E = getCount(buffer);
+            int[] offsets = getOffsets(buffer, V, E);
+            int[] targets = getInts(buffer, E);
+            checkIds(targets, V);
+            CompactDigraph graph = new CompactDigraph(offsets, targets);
+            StringTable synsets = getStrings(buffer, V);
+            StringTable glosses = getStrings(buffer, V);
+            StringTable nouns = getStrings(buffer, getCount(buffer));
+            int ids = getCount(buffer);
+            int[] idOffsets = getOffsets(buffer, nouns.size(), ids);
+            int[] synsetIds = getInts(buffer, ids);
+            checkIds(synsetIds, V);
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("corrupt snapshot: trailing bytes");
+            }
+            return new WordNetSnapshot(graph, synsets, glosses, nouns, idOffsets, synsetIds);
+        }
+    }
+
+    // a count, which must be non-negative
+    private static int getCount(ByteBuffer buffer) {
+        checkRemaining(buffer, 1);
+        int count = buffer.getInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("corrupt snapshot: negative count");
+        }
+        return count;
+    }
+
+    // count + 1 offsets running from 0 up to end without decreasing
+    private static int[] getOffsets(ByteBuffer buffer, int count, int end) {
+        if (count == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("truncated snapshot");
+        }
+        int[] offsets = getInts(buffer, count + 1);
+        if ((offsets[0] != 0) || (offsets[count] != end)) {
+            throw new IllegalArgumentException("corrupt snapshot: bad offsets");
+        }
+        for (int i = 0; i < count; i++) {
+            if (offsets[i] > offsets[i + 1]) {
+                throw new IllegalArgumentException("corrupt snapshot: bad offsets");
+            }
+        }
+        return offsets;
+    }
+
+    private static void checkIds(int[] ids, int V) {
+        for (int id : ids) {
+            if ((id < 0) || (id >= V)) {
+                throw new IllegalArgumentException("corrupt snapshot: synset id out of range");
+            }
+        }
+    }
+
+    // at least count more ints in the file
+    private static void checkRemaining(ByteBuffer buffer, long count) {
+        if (4L * count > buffer.remaining()) {
+            throw new IllegalArgumentException("truncated snapshot");
+        }
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    // bulk copy out of the mapping; no per-element parsing
+    private static int[] getInts(ByteBuffer buffer, int count) {
+        checkRemaining(buffer, count);
+        int[] values = new int[count];
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    // a string table is its byte count, its offsets and its bytes padded to a 4-byte boundary
+    private static long size(StringTable strings) {
+        return 4L + 4L * strings.offsets().length + padded(strings.bytes().length);
+    }
+
+    private static void putStrings(ByteBuffer buffer, StringTable strings) {
+        byte[] bytes = strings.bytes();
+        buffer.putInt(bytes.length);
+        putInts(buffer, strings.offsets());
+        buffer.put(bytes);
+        buffer.position(buffer.position() + padded(bytes.length) - bytes.length);
+    }
+
+    private static StringTable getStrings(ByteBuffer buffer, int count) {
+        int length = getCount(buffer);
+        int[] offsets = getOffsets(buffer, count, length);
+        if (padded(length) > buffer.remaining()) {
+            throw new IllegalArgumentException("truncated snapshot");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        buffer.position(buffer.position() + padded(length) - length);
+        return new StringTable(offsets, bytes);
+    }
+
+    private static int padded(int length) {
+        return (length + 3) & ~3;
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.Random;
+
+// Energies of runs of interior pixels in a flat buffer of packed RGB values whose rows are
+// stride apart. The scalar kernel unpacks one pixel at a time; VectorEnergy computes a whole
+// segment of a row per instruction with jdk.incubator.vector. It is kept in vector/, out
+// of the default javac *.java, compiled only on request (see there) and looked up by name:
+// without it, or when the module is not added to the running JVM (--add-modules
+// jdk.incubator.vector), the scalar kernel is used.
+abstract class EnergyKernel {
+
+	static final EnergyKernel SCALAR = new EnergyKernel() {
+		@Override
+		String name() {
+			return "scalar";
+		}
+
+		@Override
+		void computeRun(int[] pixels, int stride, int from, int to, double[] energy) {
+			computeScalar(pixels, stride, from, to, energy);
+		}
+	};
+
+	private static final EnergyKernel BEST = load();
+
+	// short description of the kernel
+	abstract String name();
+
+	// energy[i] for every i in [from, to); each such pixel must have a neighbour on all four
+	// sides, that is lie off the border of the picture
+	abstract void computeRun(int[] pixels, int stride, int from, int to, double[] energy);
+
+	// the vectorized kernel if the running JVM supports it, otherwise the scalar one
+	static EnergyKernel best() {
+		return BEST;
+	}
+
+	private static EnergyKernel load() {
+		try {
+			return (EnergyKernel) Class.forName("VectorEnergy").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			// not compiled, or jdk.incubator.vector is not in the boot layer
+			return SCALAR;
+		}
+	}
+
+	// sum of the squared channel differences is at most 6 * 255^2, so it is exact in int
+	// and the square root is the only floating point step
+	static void computeScalar(int[] pixels, int stride, int from, int to, double[] energy) {
+		for (int i = from; i < to; i++) {
+			energy[i] = Math.sqrt(getDelSq(pixels[i - 1], pixels[i + 1])
+					+ getDelSq(pixels[i - stride], pixels[i + stride]));
+		}
+	}
+
+	static int getDelSq(int m1, int p1) {
+		int rdel = ((p1 >> 16) & 0xFF) - ((m1 >> 16) & 0xFF);
+		int gdel = ((p1 >> 8) & 0xFF) - ((m1 >> 8) & 0xFF);
+		int bdel = ((p1 >> 0) & 0xFF) - ((m1 >> 0) & 0xFF);
+		return (rdel * rdel) + (gdel * gdel) + (bdel * bdel);
+	}
+
+	// benchmark: the interior energies of a random width x height picture with the scalar
+	// and the best kernel, in pixels per second; run with --add-modules jdk.incubator.vector
+	// to measure the vectorized kernel
+	public static void main(String[] args) {
+		int width = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		int height = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+		if ((width < 3) || (height < 3) || (rounds < 1)) {
+			throw new IllegalArgumentException("picture must be at least 3x3");
+		}
+		Random random = new Random(1);
+		int[] pixels = new int[width * height];
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = random.nextInt(1 << 24);
+		}
+		double[] expected = new double[pixels.length];
+		double[] actual = new double[pixels.length];
+		double scalar = benchmark(SCALAR, pixels, width, height, rounds, expected);
+		double best = benchmark(BEST, pixels, width, height, rounds, actual);
+		for (int i = 0; i < pixels.length; i++) {
+			if (Double.doubleToLongBits(expected[i]) != Double.doubleToLongBits(actual[i])) {
+				throw new IllegalStateException(BEST.name() + " kernel differs at pixel " + i);
+			}
+		}
+		System.out.printf("%dx%d, %d rounds%n", width, height, rounds);
+		System.out.printf("%-8s %.1f Mpixels/s%n", SCALAR.name(), scalar / 1e6);
+		if (BEST != SCALAR) {
+			System.out.printf("%-8s %.1f Mpixels/s (%.2fx)%n", BEST.name(), best / 1e6, best / scalar);
+		} else {
+			System.out.println("vector   unavailable, add --add-modules jdk.incubator.vector");
+		}
+	}
+
+	// interior pixels per second over the timed rounds, after as many untimed warmup rounds
+	private static double benchmark(EnergyKernel kernel, int[] pixels, int width, int height, int rounds,
+			double[] energy) {
+		long nanos = 0;
+		for (int r = 0; r < 2 * rounds; r++) {
+			long start = System.nanoTime();
+			for (int row = 1; row < height - 1; row++) {
+				int base = row * width;
+				kernel.computeRun(pixels, width, base + 1, base + width - 1, energy);
+			}
+			if (r >= rounds) {
+				nanos += System.nanoTime() - start;
+			}
+		}
+		return (double) rounds * (width - 2) * (height - 2) / (nanos / 1e9);
+	}
+}
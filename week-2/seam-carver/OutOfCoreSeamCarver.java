@@ -0,0 +1,381 @@
+import edu.princeton.cs.algs4.Picture;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Removes vertical seams from pictures too large for the heap. The picture is a raw file of
+// width x height packed RGB values, 4 bytes each, big-endian, row by row. The carver works
+// on a copy of it, which it reads and writes through memory mappings of bands of rows, and
+// never holds more than three rows of pixels and a few rows of energies and path costs:
+// heap use grows with the width only, about 40 bytes per column.
+// Each seam is one pass down the picture and one back up. The pass down removes the
+// previous seam from each row as it reads it, computes the energies of the row above from
+// the three rows around it and relaxes its path costs, writing one parent direction byte
+// per pixel to a scratch file. The pass up follows the directions from the cheapest bottom
+// pixel and writes the seam, one column per row, to the end of the scratch file. Ties go
+// to the same pixels as in SeamCarver, so the seams are the same.
+// Horizontal seams would need the picture transposed on disk and are not supported.
+public final class OutOfCoreSeamCarver implements Closeable {
+
+	// bytes of a file mapped at a time
+	private static final int BAND_BYTES = 1 << 26;
+
+	private final Path work;
+	private final Path scratch;
+	private final FileChannel pixelChannel;
+	private final FileChannel scratchChannel;
+	// pixels keep their original stride of one row of the input
+	private final Rows pixels;
+	private final Rows directions;
+	// column of the last seam in each row
+	private final IntBuffer seam;
+	private final int stride;
+	private int width;
+	private final int height;
+	// the last seam is still in the pixel file, to be removed by the next pass down
+	private boolean pending;
+	private boolean closed;
+
+	// the rows around the current one, and the energies, path costs and directions of a row
+	private int[] up;
+	private int[] mid;
+	private int[] down;
+	private final double[] energy;
+	private double[] distTo;
+	private double[] distFrom;
+	private final byte[] edgeTo;
+
+	// carver for the raw width x height picture in file raw; the file itself is not changed
+	public OutOfCoreSeamCarver(Path raw, int width, int height) throws IOException {
+		if (raw == null) {
+			throw new IllegalArgumentException("arguments cannot be null");
+		}
+		if ((width < 1) || (height < 1)) {
+			throw new IllegalArgumentException("width or height not in range");
+		}
+		if (Files.size(raw) != 4L * width * height) {
+			throw new IllegalArgumentException("file size does not match width x height");
+		}
+		this.width = width;
+		this.height = height;
+		stride = width;
+		Path dir = raw.toAbsolutePath().getParent();
+		Path work = null;
+		Path scratch = null;
+		FileChannel pixelChannel = null;
+		FileChannel scratchChannel = null;
+		try {
+			work = Files.createTempFile(dir, "carve", ".raw");
+			scratch = Files.createTempFile(dir, "carve", ".dir");
+			Files.copy(raw, work, StandardCopyOption.REPLACE_EXISTING);
+			pixelChannel = FileChannel.open(work, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			scratchChannel = FileChannel.open(scratch, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			pixels = new Rows(pixelChannel, 0, 4 * stride, height);
+			directions = new Rows(scratchChannel, 0, stride, height);
+			seam = scratchChannel.map(FileChannel.MapMode.READ_WRITE, (long) stride * height, 4L * height)
+					.asIntBuffer();
+		} catch (Throwable e) {
+			// a copy that failed half way, say on a full disk, can leave gigabytes next to the input
+			discard(e, pixelChannel, scratchChannel, work, scratch);
+			throw e;
+		}
+		this.work = work;
+		this.scratch = scratch;
+		this.pixelChannel = pixelChannel;
+		this.scratchChannel = scratchChannel;
+		up = new int[stride];
+		mid = new int[stride];
+		down = new int[stride];
+		energy = new double[stride];
+		distTo = new double[stride];
+		distFrom = new double[stride];
+		edgeTo = new byte[stride];
+	}
+
+	// width of current picture
+	public int width() {
+		return width;
+	}
+
+	// height of current picture
+	public int height() {
+		return height;
+	}
+
+	// remove k vertical seams from current picture
+	public void removeVerticalSeams(int k) {
+		checkOpen();
+		if ((k < 0) || (k >= width)) {
+			throw new IllegalArgumentException("seam count not in range");
+		}
+		for (int n = 0; n < k; n++) {
+			passDown(true);
+			backtrack();
+			pending = true;
+		}
+	}
+
+	// Writes the current picture to out as a raw file, mapped a band of rows at a time.
+	public void writeTo(Path out) throws IOException {
+		checkOpen();
+		if (out == null) {
+			throw new IllegalArgumentException("arguments cannot be null");
+		}
+		if (pending) {
+			passDown(false);
+		}
+		try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			Rows rows = new Rows(channel, 0, 4 * width, height);
+			for (int r = 0; r < height; r++) {
+				pixels.read(r, mid, 0, width);
+				rows.write(r, mid, 0, width);
+			}
+		}
+	}
+
+	// deletes the working copy and the scratch file
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		pixelChannel.close();
+		scratchChannel.close();
+		Files.deleteIfExists(work);
+		Files.deleteIfExists(scratch);
+	}
+
+	// One pass down the rows: removes the pending seam from each row as it is read and, if
+	// search, relaxes the row above it, which by then has both of its neighbours loaded.
+	private void passDown(boolean search) {
+		int old = width;
+		if (pending) {
+			width--;
+			pending = false;
+		}
+		for (int r = 0; r < height; r++) {
+			int[] swap = up;
+			up = mid;
+			mid = down;
+			down = swap;
+			pixels.read(r, down, 0, old);
+			if (old != width) {
+				int s = seam.get(r);
+				System.arraycopy(down, s + 1, down, s, old - s - 1);
+				pixels.write(r, down, s, width - s);
+			}
+			if (search && (r > 0)) {
+				relax(r - 1);
+			}
+		}
+		if (search) {
+			// the rotation left the bottom row in down, but a border row needs no pixels
+			relax(height - 1);
+		}
+	}
+
+	// energies and path costs of row i, from the costs of row i - 1 in distFrom; the costs
+	// end up in distFrom and the directions in the scratch file
+	private void relax(int i) {
+		if ((i == 0) || (i == height - 1) || (width < 3)) {
+			Arrays.fill(energy, 0, width, 1000);
+		} else {
+			energy[0] = 1000;
+			energy[width - 1] = 1000;
+			for (int j = 1; j < width - 1; j++) {
+				energy[j] = Math.sqrt(EnergyKernel.getDelSq(mid[j - 1], mid[j + 1])
+						+ EnergyKernel.getDelSq(up[j], down[j]));
+			}
+		}
+		if (i == 0) {
+			System.arraycopy(energy, 0, distFrom, 0, width);
+			return;
+		}
+		relaxEdge(0);
+		for (int j = 1; j < width - 1; j++) {
+			double weight = energy[j];
+			double best = distFrom[j - 1] + weight;
+			double straight = distFrom[j] + weight;
+			double right = distFrom[j + 1] + weight;
+			int from = -1;
+			// strict comparisons keep the leftmost of equal costs
+			if (straight < best) {
+				best = straight;
+				from = 0;
+			}
+			if (right < best) {
+				best = right;
+				from = 1;
+			}
+			distTo[j] = best;
+			edgeTo[j] = (byte) from;
+		}
+		if (width > 1) {
+			relaxEdge(width - 1);
+		}
+		directions.write(i, edgeTo, width);
+		double[] swap = distFrom;
+		distFrom = distTo;
+		distTo = swap;
+	}
+
+	// as relax, for the edge columns where one of the three pixels above is missing
+	private void relaxEdge(int j) {
+		int from = Math.max(0, j - 1);
+		double best = distFrom[from] + energy[j];
+		for (int p = from + 1; p <= Math.min(width - 1, j + 1); p++) {
+			double dist = distFrom[p] + energy[j];
+			if (dist < best) {
+				best = dist;
+				from = p;
+			}
+		}
+		distTo[j] = best;
+		edgeTo[j] = (byte) (from - j);
+	}
+
+	// the seam ending at the leftmost cheapest pixel of the bottom row, followed up the
+	// direction bytes
+	private void backtrack() {
+		int col = 0;
+		for (int j = 1; j < width; j++) {
+			if (distFrom[j] < distFrom[col]) {
+				col = j;
+			}
+		}
+		seam.put(height - 1, col);
+		for (int i = height - 1; i > 0; i--) {
+			col += directions.get(i, col);
+			seam.put(i - 1, col);
+		}
+	}
+
+	// closes the channels and deletes the files of a carver that failed to open, skipping
+	// those it did not get to; failures to do so are added to e
+	private static void discard(Throwable e, FileChannel pixelChannel, FileChannel scratchChannel, Path... files) {
+		for (FileChannel channel : new FileChannel[] {pixelChannel, scratchChannel}) {
+			try {
+				if (channel != null) {
+					channel.close();
+				}
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+		}
+		for (Path file : files) {
+			try {
+				if (file != null) {
+					Files.deleteIfExists(file);
+				}
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("carver is closed");
+		}
+	}
+
+	// Rows of rowBytes bytes from offset start in a file, mapped in bands of whole rows.
+	// Every band is mapped once, up front, and reused by every pass: a mapping is only
+	// released when the garbage collector finds its buffer, which a carver that allocates
+	// next to nothing on the heap might not do before the process runs out of mappings.
+	private static final class Rows {
+		private final int rowBytes;
+		private final int bandRows;
+		private final ByteBuffer[] bands;
+		// the same bands as ints, for rows of pixels
+		private final IntBuffer[] ints;
+
+		Rows(FileChannel channel, long start, int rowBytes, int count) throws IOException {
+			this.rowBytes = rowBytes;
+			bandRows = Math.max(1, BAND_BYTES / Math.max(1, rowBytes));
+			int n = (count + bandRows - 1) / bandRows;
+			bands = new ByteBuffer[n];
+			ints = new IntBuffer[n];
+			for (int b = 0; b < n; b++) {
+				int rows = Math.min(bandRows, count - (b * bandRows));
+				bands[b] = channel.map(FileChannel.MapMode.READ_WRITE, start + ((long) b * bandRows * rowBytes),
+						(long) rows * rowBytes);
+				ints[b] = bands[b].asIntBuffer();
+			}
+		}
+
+		void read(int r, int[] dst, int off, int n) {
+			ints[r / bandRows].get(((r % bandRows) * (rowBytes / 4)) + off, dst, off, n);
+		}
+
+		void write(int r, int[] src, int off, int n) {
+			ints[r / bandRows].put(((r % bandRows) * (rowBytes / 4)) + off, src, off, n);
+		}
+
+		void write(int r, byte[] src, int n) {
+			bands[r / bandRows].put((r % bandRows) * rowBytes, src, 0, n);
+		}
+
+		byte get(int r, int col) {
+			return bands[r / bandRows].get(((r % bandRows) * rowBytes) + col);
+		}
+	}
+
+	// writes picture to file out as a raw picture
+	public static void writeRaw(Picture picture, Path out) throws IOException {
+		try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(out)))) {
+			for (int y = 0; y < picture.height(); y++) {
+				for (int x = 0; x < picture.width(); x++) {
+					stream.writeInt(picture.getRGB(x, y));
+				}
+			}
+		}
+	}
+
+	// the raw width x height picture in file in
+	public static Picture readRaw(Path in, int width, int height) throws IOException {
+		Picture picture = new Picture(width, height);
+		try (DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(in)))) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					picture.setRGB(x, y, stream.readInt());
+				}
+			}
+		}
+		return picture;
+	}
+
+	// carves the given number of vertical seams from a raw width x height picture into a raw output file
+	public static void main(String[] args) throws IOException {
+		if (args.length < 5) {
+			System.out.println("usage: OutOfCoreSeamCarver in.raw width height seams out.raw");
+			return;
+		}
+		int width = Integer.parseInt(args[1]);
+		int height = Integer.parseInt(args[2]);
+		int seams = Integer.parseInt(args[3]);
+		long start = System.nanoTime();
+		try (OutOfCoreSeamCarver carver = new OutOfCoreSeamCarver(Paths.get(args[0]), width, height)) {
+			carver.removeVerticalSeams(seams);
+			carver.writeTo(Paths.get(args[4]));
+			Runtime runtime = Runtime.getRuntime();
+			System.out.printf("%dx%d -> %dx%d in %.1f s, heap %d KB%n", width, height, carver.width(),
+					carver.height(), (System.nanoTime() - start) / 1e9,
+					(runtime.totalMemory() - runtime.freeMemory()) / 1024);
+		}
+	}
+}
@@ -0,0 +1,289 @@
+import edu.princeton.cs.algs4.Picture;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Carves many pictures at once on a fixed number of worker threads. Jobs wait in a bounded
+// queue and submit() blocks while it is full, so a producer faster than the workers is
+// held back instead of piling up pictures. Each worker keeps one SeamCarver.Buffers and
+// builds the carver of every job it runs on it, so the scratch arrays are allocated once
+// per worker and grow to the largest picture it has seen: the heap held by the engine is
+// about workers x largest picture, however many jobs go through it.
+// A job that throws, even with an Error such as OutOfMemoryError, completes its future
+// exceptionally and counts as failed; the worker survives it and takes the next job.
+public final class ResizingEngine {
+
+	// queued after the last job to stop a worker
+	private static final Job STOP = new Job(null, 0, 0);
+
+	private final BlockingQueue<Job> queue;
+	private final Thread[] workers;
+	// scratch bytes held by each worker after its last job
+	private final AtomicLongArray scratch;
+	// submit() holds the read lock while it queues a job, so producers blocked on a full queue
+	// wait side by side; shutdown() holds the write lock, so it waits for them and no job can
+	// be queued behind the stops
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private boolean closed;
+	// stops queued so far, one per worker when shutdown() is done
+	private int stops;
+
+	private final long startNanos = System.nanoTime();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder pixels = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final LongAdder latencyNanos = new LongAdder();
+	private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+
+	// an engine with the given number of worker threads and room for capacity waiting jobs
+	public ResizingEngine(int workers, int capacity) {
+		if ((workers < 1) || (capacity < 1)) {
+			throw new IllegalArgumentException("workers or capacity not in range");
+		}
+		queue = new ArrayBlockingQueue<>(capacity);
+		scratch = new AtomicLongArray(workers);
+		this.workers = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			int id = i;
+			this.workers[i] = new Thread(() -> work(id), "resizer-" + i);
+			this.workers[i].setDaemon(true);
+			this.workers[i].start();
+		}
+	}
+
+	// Queues a job carving picture down to width x height and returns its future result;
+	// blocks while the queue is full, or while shutdown() holds the lock. The picture must
+	// not change until the job is done.
+	public CompletableFuture<Result> submit(Picture picture, int width, int height) throws InterruptedException {
+		if (picture == null) {
+			throw new IllegalArgumentException("arguments cannot be null");
+		}
+		if ((width < 1) || (width > picture.width()) || (height < 1) || (height > picture.height())) {
+			throw new IllegalArgumentException("target size not in range");
+		}
+		Job job = new Job(picture, width, height);
+		Lock shared = lock.readLock();
+		shared.lockInterruptibly();
+		try {
+			if (closed) {
+				throw new IllegalStateException("engine is closed");
+			}
+			queue.put(job);
+		} finally {
+			shared.unlock();
+		}
+		return job.result;
+	}
+
+	// Stops taking jobs, waits for the queued ones to finish and stops the workers. If it is
+	// interrupted the engine stays closed, and calling it again queues the stops still missing
+	// and waits for the workers.
+	public void shutdown() throws InterruptedException {
+		Lock exclusive = lock.writeLock();
+		exclusive.lockInterruptibly();
+		try {
+			closed = true;
+			while (stops < workers.length) {
+				queue.put(STOP);
+				stops++;
+			}
+		} finally {
+			exclusive.unlock();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+	}
+
+	private void work(int id) {
+		SeamCarver.Buffers buffers = new SeamCarver.Buffers();
+		while (true) {
+			Job job;
+			try {
+				job = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (job == STOP) {
+				return;
+			}
+			long start = System.nanoTime();
+			try {
+				SeamCarver carver = new SeamCarver(job.picture, buffers);
+				carver.resizeTo(job.width, job.height);
+				Picture picture = carver.picture();
+				carver.recycle();
+				long end = System.nanoTime();
+				completed.increment();
+				pixels.add((long) job.picture.width() * job.picture.height());
+				waitNanos.add(start - job.submitNanos);
+				latencyNanos.add(end - job.submitNanos);
+				maxLatencyNanos.accumulate(end - job.submitNanos);
+				scratch.set(id, buffers.memoryBytes());
+				job.result.complete(new Result(picture, start - job.submitNanos, end - start));
+			} catch (Throwable e) {
+				// Errors too, OutOfMemoryError above all: the job fails, not the worker. The
+				// worker drops its scratch, which a failed carver may not have handed back
+				// and which may be what ran the heap out, and carries on with the next job.
+				buffers = new SeamCarver.Buffers();
+				scratch.set(id, 0);
+				failed.increment();
+				job.result.completeExceptionally(e);
+			}
+		}
+	}
+
+	private static final class Job {
+		private final Picture picture;
+		private final int width;
+		private final int height;
+		private final long submitNanos = System.nanoTime();
+		private final CompletableFuture<Result> result = new CompletableFuture<>();
+
+		Job(Picture picture, int width, int height) {
+			this.picture = picture;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	// the carved picture of a job, with the time it spent queued and carving
+	public static final class Result {
+		private final Picture picture;
+		private final long waitNanos;
+		private final long carveNanos;
+
+		private Result(Picture picture, long waitNanos, long carveNanos) {
+			this.picture = picture;
+			this.waitNanos = waitNanos;
+			this.carveNanos = carveNanos;
+		}
+
+		public Picture picture() {
+			return picture;
+		}
+
+		public double waitMillis() {
+			return waitNanos / 1e6;
+		}
+
+		public double carveMillis() {
+			return carveNanos / 1e6;
+		}
+
+		// from submit() to the result
+		public double latencyMillis() {
+			return (waitNanos + carveNanos) / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%dx%d wait=%.1fms carve=%.1fms", picture.width(), picture.height(), waitMillis(),
+					carveMillis());
+		}
+	}
+
+	// number of jobs carved
+	public long completed() {
+		return completed.sum();
+	}
+
+	// number of jobs that threw
+	public long failed() {
+		return failed.sum();
+	}
+
+	// number of jobs waiting in the queue
+	public int queued() {
+		return queue.size();
+	}
+
+	// jobs carved per second since the engine started
+	public double jobsPerSecond() {
+		return completed.sum() / elapsedSeconds();
+	}
+
+	// input pixels carved per second since the engine started, in millions
+	public double megapixelsPerSecond() {
+		return pixels.sum() / 1e6 / elapsedSeconds();
+	}
+
+	// mean time from submit() to the result, over the completed jobs
+	public double meanLatencyMillis() {
+		long n = completed.sum();
+		return (n == 0) ? 0 : latencyNanos.sum() / 1e6 / n;
+	}
+
+	// mean time a completed job waited in the queue
+	public double meanWaitMillis() {
+		long n = completed.sum();
+		return (n == 0) ? 0 : waitNanos.sum() / 1e6 / n;
+	}
+
+	public double maxLatencyMillis() {
+		return maxLatencyNanos.get() / 1e6;
+	}
+
+	// scratch held by the workers, in bytes
+	public long scratchBytes() {
+		long bytes = 0;
+		for (int i = 0; i < scratch.length(); i++) {
+			bytes += scratch.get(i);
+		}
+		return bytes;
+	}
+
+	private double elapsedSeconds() {
+		return (System.nanoTime() - startNanos) / 1e9;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ResizingEngine[workers=%d, completed=%d, failed=%d, queued=%d, jobs/s=%.1f, "
+				+ "Mpixels/s=%.2f, meanLatency=%.1fms, meanWait=%.1fms, maxLatency=%.1fms, scratchBytes=%d]",
+				workers.length, completed(), failed(), queued(), jobsPerSecond(), megapixelsPerSecond(),
+				meanLatencyMillis(), meanWaitMillis(), maxLatencyMillis(), scratchBytes());
+	}
+
+	// load test: carves jobs random pictures of up to maxWidth x maxHeight down by the given
+	// fraction, printing the metrics and the heap in use as it goes
+	public static void main(String[] args) throws Exception {
+		int workers = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int capacity = (args.length > 1) ? Integer.parseInt(args[1]) : 2 * workers;
+		int jobs = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+		int maxWidth = (args.length > 3) ? Integer.parseInt(args[3]) : 400;
+		int maxHeight = (args.length > 4) ? Integer.parseInt(args[4]) : 300;
+		double fraction = (args.length > 5) ? Double.parseDouble(args[5]) : 0.1;
+		Random random = new Random(1);
+		Runtime runtime = Runtime.getRuntime();
+		ResizingEngine engine = new ResizingEngine(workers, capacity);
+		try {
+			for (int n = 1; n <= jobs; n++) {
+				int w = 1 + (maxWidth / 2) + random.nextInt((maxWidth + 1) / 2);
+				int h = 1 + (maxHeight / 2) + random.nextInt((maxHeight + 1) / 2);
+				Picture picture = new Picture(w, h);
+				for (int y = 0; y < h; y++) {
+					for (int x = 0; x < w; x++) {
+						picture.setRGB(x, y, random.nextInt(1 << 24));
+					}
+				}
+				engine.submit(picture, w - (int) (w * fraction), h - (int) (h * fraction));
+				if ((n % Math.max(1, jobs / 10) == 0) || (n == jobs)) {
+					System.out.printf("%d submitted, heap %d KB, %s%n", n,
+							(runtime.totalMemory() - runtime.freeMemory()) / 1024, engine);
+				}
+			}
+		} finally {
+			engine.shutdown();
+		}
+		System.out.println(engine);
+	}
+}
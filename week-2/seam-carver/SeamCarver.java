@@ -1,28 +1,135 @@
 import edu.princeton.cs.algs4.Picture;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
+// The pixels live in one int[] of packed RGB values instead of a Picture. Rows of the
+// storage are picture rows, or picture columns while the carver is in transposed layout:
+// vertical seams are found and removed in row layout and horizontal seams in transposed
+// layout, so both are a vertical seam through the storage and removing one is an
+// arraycopy per storage row. The layout only flips when the seam direction changes.
+// Storage rows are stride apart and may hold stale entries past cols().
+// Given a ForkJoinPool, the energy is computed in bands of rows and each row of the seam
+// search is split into column chunks on the pool; images below the thresholds are still
+// processed on the calling thread, where forking costs more than it saves.
 public class SeamCarver {
 
-	private Picture picture;
+	// fewest pixels worth computing in parallel, and fewest per band or chunk
+	private static final int PARALLEL_PIXELS = 1 << 16;
+	private static final int BAND_PIXELS = 1 << 14;
+	// fewest columns per chunk of a seam search row
+	private static final int CHUNK_COLUMNS = 1024;
+	// vectorized when the JVM runs with jdk.incubator.vector, scalar otherwise
+	private static final EnergyKernel KERNEL = EnergyKernel.best();
+
+	private int[] pixels;
+	// energy of each pixel in the same layout as pixels, built on the first seam search
+	// and kept up to date by the removals
+	private double[] energy;
+	private int stride;
+	private boolean transposed;
+	// scratch reused across calls: the other layout while transposing, and the path
+	// costs and parent directions of the seam search
+	private int[] spare = new int[0];
+	private double[] spareEnergy = new double[0];
+	private double[] distTo = new double[0];
+	private double[] distFrom = new double[0];
+	private byte[] edgeTo = new byte[0];
+	// path cost of every pixel, in the layout of energy, while removing a batch of seams
+	private double[] cost = new double[0];
+	// coarser energy levels for pyramid seams; 0 levels means exact seams
+	private int pyramidLevels;
+	private int pyramidBand;
+	private double[][] pyramid = new double[0][];
+	private int width;
+	private int height;
+	// null if everything runs on the calling thread
+	private final ForkJoinPool pool;
+	// where the arrays came from and go back to on recycle(); null if the carver owns them
+	private final Buffers buffers;
 
 	// create a seam carver object based on the given picture
 	public SeamCarver(Picture picture) {
+		this(picture, null, false, null);
+	}
+
+	// as above, computing energies and seams on the given pool, whose parallelism sets how
+	// many threads a carver uses
+	public SeamCarver(Picture picture, ForkJoinPool pool) {
+		this(picture, pool, true, null);
+	}
+
+	// as the first, working in the arrays held by buffers until recycle() instead of
+	// allocating its own; they grow where the picture needs more
+	SeamCarver(Picture picture, Buffers buffers) {
+		// checked in the call, before the picture is copied
+		this(picture, null, false, nullCheck(buffers));
+	}
+
+	private SeamCarver(Picture picture, ForkJoinPool pool, boolean parallel, Buffers buffers) {
 		nullCheck(picture);
-		this.picture = new Picture(picture);
+		if (parallel) {
+			nullCheck(pool);
+		}
+		this.pool = pool;
+		this.buffers = buffers;
+		width = picture.width();
+		height = picture.height();
+		stride = width;
+		if ((buffers != null) && (buffers.pixels.length >= width * height)) {
+			pixels = buffers.pixels;
+		} else {
+			pixels = new int[width * height];
+		}
+		if (buffers != null) {
+			spare = buffers.spare;
+			spareEnergy = buffers.spareEnergy;
+			distTo = buffers.distTo;
+			distFrom = buffers.distFrom;
+			edgeTo = buffers.edgeTo;
+			cost = buffers.cost;
+		}
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				pixels[(y * stride) + x] = picture.getRGB(x, y);
+			}
+		}
 	}
 
-	// current picture
+	// current picture, built from the pixel buffer on each call
 	public Picture picture() {
-		return new Picture(picture);
+		Picture picture = new Picture(width, height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				picture.setRGB(x, y, pixels[index(x, y)]);
+			}
+		}
+		return picture;
 	}
 
 	// width of current picture
 	public int width() {
-		return picture.width();
+		return width;
 	}
 
 	// height of current picture
 	public int height() {
-		return picture.height();
+		return height;
+	}
+
+	// number of storage rows
+	private int rows() {
+		return transposed ? width : height;
+	}
+
+	// number of pixels in each storage row
+	private int cols() {
+		return transposed ? height : width;
+	}
+
+	private int index(int x, int y) {
+		return transposed ? ((x * stride) + y) : ((y * stride) + x);
 	}
 
 	// energy of pixel at column x and row y
@@ -30,36 +137,27 @@ public class SeamCarver {
 	public double energy(int x, int y) {
 		checkHeightValid(y);
 		checkWidthValid(x);
-		if (pixelIsBorder(x, y)) {
-			return 1000;
+		if (energy != null) {
+			return energy[index(x, y)];
 		}
-		double delXSq = getDelXSq(x, y);
-		double delYSq = getDelYSq(x, y);
-		return Math.sqrt(delXSq + delYSq);
-	}
-
-	private double getDelYSq(int x, int y) {
-		int yp1 = picture.getRGB(x, y + 1);
-		int ym1 = picture.getRGB(x, y - 1);
-		int rdel = ((yp1 >> 16) & 0xFF) - ((ym1 >> 16) & 0xFF);
-		int gdel = ((yp1 >> 8) & 0xFF) - ((ym1 >> 8) & 0xFF);
-		int bdel = ((yp1 >> 0) & 0xFF) - ((ym1 >> 0) & 0xFF);
-		double delSq = (rdel * rdel) + (gdel * gdel) + (bdel * bdel);
-		return delSq;
+		return transposed ? computeEnergy(x, y) : computeEnergy(y, x);
 	}
 
-	private double getDelXSq(int x, int y) {
-		int xp1 = picture.getRGB(x + 1, y);
-		int xm1 = picture.getRGB(x - 1, y);
-		int rdel = ((xp1 >> 16) & 0xFF) - ((xm1 >> 16) & 0xFF);
-		int gdel = ((xp1 >> 8) & 0xFF) - ((xm1 >> 8) & 0xFF);
-		int bdel = ((xp1 >> 0) & 0xFF) - ((xm1 >> 0) & 0xFF);
-		double delSq = (rdel * rdel) + (gdel * gdel) + (bdel * bdel);
-		return delSq;
+	// energy of the pixel in storage row row and column col; the gradient is symmetric in
+	// the two axes, so this is the same in either layout
+	private double computeEnergy(int row, int col) {
+		if (pixelIsBorder(row, col)) {
+			return 1000;
+		}
+		int i = (row * stride) + col;
+		// the same sum as EnergyKernel.computeScalar, so the values match the kernels'
+		int delXSq = EnergyKernel.getDelSq(pixels[i - 1], pixels[i + 1]);
+		int delYSq = EnergyKernel.getDelSq(pixels[i - stride], pixels[i + stride]);
+		return Math.sqrt(delXSq + delYSq);
 	}
 
-	private boolean pixelIsBorder(int x, int y) {
-		if ((x == 0) || (y == 0) || (x == width() - 1) || (y == height() - 1)) {
+	private boolean pixelIsBorder(int row, int col) {
+		if ((row == 0) || (col == 0) || (row == rows() - 1) || (col == cols() - 1)) {
 			return true;
 		}
 		return false;
@@ -67,101 +165,565 @@ public class SeamCarver {
 
 	// sequence of indices for horizontal seam
 	public int[] findHorizontalSeam() {
-		double[][] energy = getEnergyTransposeMatrix();
-		int[] verticalSeam = getVerticalSeam(energy);
-		return verticalSeam;
+		setLayout(true);
+		return findSeam();
 	}
 
 	// sequence of indices for vertical seam
 	public int[] findVerticalSeam() {
-		double[][] energy = getEnergyMatrix();
-		int[] verticalSeam = getVerticalSeam(energy);
-		return verticalSeam;
+		setLayout(false);
+		return findSeam();
+	}
+
+	// the exact seam, or the pyramid approximation if setPyramid() turned it on
+	private int[] findSeam() {
+		return (pyramidLevels == 0) ? getVerticalSeam() : getPyramidSeam();
+	}
+
+	// switches between row and transposed layout, transposing the pixels and energies
+	private void setLayout(boolean transposed) {
+		if (this.transposed == transposed) {
+			return;
+		}
+		int rows = rows();
+		int cols = cols();
+		if (spare.length < rows * cols) {
+			spare = new int[rows * cols];
+		}
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++) {
+				spare[(col * rows) + row] = pixels[(row * stride) + col];
+			}
+		}
+		int[] swap = pixels;
+		pixels = spare;
+		spare = swap;
+		if (energy != null) {
+			if (spareEnergy.length < rows * cols) {
+				spareEnergy = new double[rows * cols];
+			}
+			for (int row = 0; row < rows; row++) {
+				for (int col = 0; col < cols; col++) {
+					spareEnergy[(col * rows) + row] = energy[(row * stride) + col];
+				}
+			}
+			double[] swapEnergy = energy;
+			energy = spareEnergy;
+			spareEnergy = swapEnergy;
+		}
+		stride = rows;
+		this.transposed = transposed;
+	}
+
+	// Seam through the storage rows, one column index per row. The shortest path to each
+	// pixel only depends on the row above, so the dynamic program keeps two rows of path
+	// costs and one byte per pixel recording which of the three pixels above it came from
+	// (-1, 0 or +1 columns). Ties go to the leftmost parent and the leftmost end of the
+	// bottom row, as relaxing the edges in row order would. The buffers are kept for the
+	// next call.
+	private int[] getVerticalSeam() {
+		double[] energy = getEnergy();
+		int rows = rows();
+		int cols = cols();
+		if (distTo.length < cols) {
+			distTo = new double[cols];
+			distFrom = new double[cols];
+		}
+		ensureEdges();
+		if (parallelRows(rows, cols)) {
+			pool.invoke(new SeamRows(energy, rows, cols, false));
+		} else {
+			relaxRows(energy, rows, cols, false, false);
+		}
+		// relaxRows leaves the bottom row in distFrom
+		return backtrack(distFrom, 0, rows, cols);
+	}
+
+	private boolean parallelRows(int rows, int cols) {
+		return (pool != null) && (rows * cols >= PARALLEL_PIXELS) && (cols >= 2 * CHUNK_COLUMNS);
+	}
+
+	private void ensureEdges() {
+		if (edgeTo.length < pixels.length) {
+			edgeTo = new byte[pixels.length];
+		}
 	}
 
-	private int[] getVerticalSeam(double[][] energy) {
-		double[] distTo = new double[(energy.length * energy[0].length) + 1];
-		int[] vertexTo = new int[(energy.length * energy[0].length) + 1];
+	// the seam ending at the leftmost cheapest pixel of the bottom row, whose costs start at
+	// last[base]
+	private int[] backtrack(double[] last, int base, int rows, int cols) {
+		int end = 0;
+		for (int j = 1; j < cols; j++) {
+			if (last[base + j] < last[base + end]) {
+				end = j;
+			}
+		}
+		int verticalSeam[] = new int[rows];
+		verticalSeam[rows - 1] = end;
+		for (int i = rows - 1; i > 0; i--) {
+			verticalSeam[i - 1] = verticalSeam[i] + edgeTo[(i * stride) + verticalSeam[i]];
+		}
+		return verticalSeam;
+	}
 
-		for (int i = 0; i < energy.length; i++) {
-			for (int j = 0; j < energy[0].length; j++) {
-				if (i == 0) {
-					distTo[j] = energy[i][j];
-					vertexTo[j] = -1;
-				} else {
-					distTo[(i * energy[0].length) + j] = Double.POSITIVE_INFINITY;
+	// Fills in the path costs and parent directions row by row, splitting each row into
+	// column chunks on the current pool if parallel. With full set, the costs of every row
+	// go to the cost matrix; otherwise two rows alternate and the bottom one ends up in
+	// distFrom.
+	private void relaxRows(double[] energy, int rows, int cols, boolean parallel, boolean full) {
+		double[] prev = full ? cost : distFrom;
+		double[] cur = full ? cost : distTo;
+		System.arraycopy(energy, 0, prev, 0, cols);
+		int chunks = cols / CHUNK_COLUMNS;
+		RowChunk[] tasks = parallel ? new RowChunk[chunks] : null;
+		for (int i = 1; i < rows; i++) {
+			int prevBase = full ? ((i - 1) * stride) : 0;
+			int curBase = full ? (i * stride) : 0;
+			if (parallel) {
+				// each chunk only reads prev and writes its own columns of cur and edgeTo
+				for (int c = 0; c < chunks; c++) {
+					tasks[c] = new RowChunk(energy, i, prev, prevBase, cur, curBase, (c * cols) / chunks,
+							((c + 1) * cols) / chunks, cols);
 				}
+				ForkJoinTask.invokeAll(tasks);
+			} else {
+				relaxRow(energy, i, prev, prevBase, cur, curBase, 0, cols, cols);
+			}
+			if (!full) {
+				double[] swap = prev;
+				prev = cur;
+				cur = swap;
+			}
+		}
+		if (!full) {
+			distFrom = prev;
+			distTo = cur;
+		}
+	}
+
+	// costs of columns [lo, hi) of row i, written from cur[curBase], from the costs of row
+	// i - 1 starting at prev[prevBase]
+	private void relaxRow(double[] energy, int i, double[] prev, int prevBase, double[] cur, int curBase, int lo,
+			int hi, int cols) {
+		int base = i * stride;
+		if (lo == 0) {
+			relaxEdge(energy[base], prev, prevBase, cur, curBase, base, 0, cols);
+			lo = 1;
+		}
+		boolean last = (hi == cols) && (cols > 1);
+		int end = last ? hi - 1 : hi;
+		for (int j = lo; j < end; j++) {
+			double weight = energy[base + j];
+			double best = prev[prevBase + j - 1] + weight;
+			double up = prev[prevBase + j] + weight;
+			double right = prev[prevBase + j + 1] + weight;
+			int from = -1;
+			// strict comparisons keep the leftmost of equal costs
+			if (up < best) {
+				best = up;
+				from = 0;
+			}
+			if (right < best) {
+				best = right;
+				from = 1;
+			}
+			cur[curBase + j] = best;
+			edgeTo[base + j] = (byte) from;
+		}
+		if (last) {
+			relaxEdge(energy[base + cols - 1], prev, prevBase, cur, curBase, base, cols - 1, cols);
+		}
+	}
+
+	// cost of the pixel at column j from whichever of the pixels above is cheapest, for
+	// the edge columns where one of the three is missing
+	private void relaxEdge(double weight, double[] prev, int prevBase, double[] cur, int curBase, int base, int j,
+			int cols) {
+		int from = Math.max(0, j - 1);
+		double best = prev[prevBase + from] + weight;
+		for (int p = from + 1; p <= Math.min(cols - 1, j + 1); p++) {
+			double dist = prev[prevBase + p] + weight;
+			if (dist < best) {
+				best = dist;
+				from = p;
+			}
+		}
+		cur[curBase + j] = best;
+		edgeTo[base + j] = (byte) (from - j);
+	}
+
+	private final class SeamRows extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final double[] energy;
+		private final int rows;
+		private final int cols;
+		private final boolean full;
+
+		SeamRows(double[] energy, int rows, int cols, boolean full) {
+			this.energy = energy;
+			this.rows = rows;
+			this.cols = cols;
+			this.full = full;
+		}
+
+		@Override
+		protected void compute() {
+			relaxRows(energy, rows, cols, true, full);
+		}
+	}
+
+	private final class RowChunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final double[] energy;
+		private final int i;
+		private final double[] prev;
+		private final int prevBase;
+		private final double[] cur;
+		private final int curBase;
+		private final int lo;
+		private final int hi;
+		private final int cols;
+
+		RowChunk(double[] energy, int i, double[] prev, int prevBase, double[] cur, int curBase, int lo, int hi,
+				int cols) {
+			this.energy = energy;
+			this.i = i;
+			this.prev = prev;
+			this.prevBase = prevBase;
+			this.cur = cur;
+			this.curBase = curBase;
+			this.lo = lo;
+			this.hi = hi;
+			this.cols = cols;
+		}
+
+		@Override
+		protected void compute() {
+			relaxRow(energy, i, prev, prevBase, cur, curBase, lo, hi, cols);
+		}
+	}
+
+	// Finds seams on an image pyramid instead of exactly: each level sums 2 x 2 blocks of
+	// the energies of the level below, levels halvings deep (fewer if the picture gets too
+	// small). The seam is found exactly on the coarsest level, then at each finer level
+	// only within band pixels either side of the seam above, scaled up. The search then
+	// costs about one pass to build the pyramid plus a few columns per row, but the seam
+	// can miss a cheaper one that the coarse levels blurred away. 0 levels restores exact
+	// seams; see evaluatePyramid() for the trade-off on a given picture.
+	public void setPyramid(int levels, int band) {
+		if ((levels < 0) || (band < 1)) {
+			throw new IllegalArgumentException("pyramid levels or band not in range");
+		}
+		pyramidLevels = levels;
+		pyramidBand = band;
+	}
+
+	private int[] getPyramidSeam() {
+		double[] energy = getEnergy();
+		int[] rows = new int[pyramidLevels + 1];
+		int[] cols = new int[pyramidLevels + 1];
+		rows[0] = rows();
+		cols[0] = cols();
+		if (pyramid.length < pyramidLevels + 1) {
+			pyramid = new double[pyramidLevels + 1][0];
+		}
+		pyramid[0] = energy;
+		int levels = 0;
+		// stop before a level is too small for the band to leave anything out
+		while ((levels < pyramidLevels) && (rows[levels] >= 4) && (cols[levels] >= 4 * (pyramidBand + 1))) {
+			downscale(levels, rows, cols);
+			levels++;
+		}
+		// the coarsest level is searched in full
+		int[] lo = new int[rows[levels]];
+		int[] hi = new int[rows[levels]];
+		Arrays.fill(hi, cols[levels] - 1);
+		int[] seam = getBandedSeam(pyramid[levels], (levels == 0) ? stride : cols[levels], rows[levels],
+				cols[levels], lo, hi);
+		for (int l = levels - 1; l >= 0; l--) {
+			lo = new int[rows[l]];
+			hi = new int[rows[l]];
+			for (int i = 0; i < rows[l]; i++) {
+				int center = 2 * seam[i / 2];
+				lo[i] = Math.max(0, center - pyramidBand);
+				hi[i] = Math.min(cols[l] - 1, center + 1 + pyramidBand);
+			}
+			seam = getBandedSeam(pyramid[l], (l == 0) ? stride : cols[l], rows[l], cols[l], lo, hi);
+		}
+		pyramid[0] = null;
+		return seam;
+	}
+
+	// pyramid[level + 1] as the 2 x 2 block sums of pyramid[level], averaged where a block
+	// hangs over an odd edge so the last row and column are not cheaper than the rest
+	private void downscale(int level, int[] rows, int[] cols) {
+		double[] fine = pyramid[level];
+		int fineStride = (level == 0) ? stride : cols[level];
+		int r = (rows[level] + 1) / 2;
+		int c = (cols[level] + 1) / 2;
+		if (pyramid[level + 1].length < r * c) {
+			pyramid[level + 1] = new double[r * c];
+		}
+		double[] coarse = pyramid[level + 1];
+		// whole blocks first, then the odd last row and column if any
+		int fullRows = rows[level] / 2;
+		int fullCols = cols[level] / 2;
+		for (int i = 0; i < fullRows; i++) {
+			int top = 2 * i * fineStride;
+			int bottom = top + fineStride;
+			for (int j = 0; j < fullCols; j++) {
+				int x = 2 * j;
+				coarse[(i * c) + j] = fine[top + x] + fine[top + x + 1] + fine[bottom + x] + fine[bottom + x + 1];
 			}
 		}
-		distTo[(energy.length * energy[0].length)] = Double.POSITIVE_INFINITY;
-
-		// topological sort
-		for (int i = 0; i < energy.length; i++) {
-			for (int j = 0; j < energy[0].length; j++) {
-				// upto 3 edged per vertex
-				// relax all edges/vertices
-				int from = (i * energy[0].length) + j;
-				if (i == energy.length - 1) {
-					int to = (energy.length * energy[0].length);
-					relax(from, to, 0, distTo, vertexTo);
-				} else {
-					int to = ((i + 1) * energy[0].length) + j;
-					double weight = energy[i + 1][j];
-					relax(from, to, weight, distTo, vertexTo);
-					// check
-					if (j > 0) {
-						to = ((i + 1) * energy[0].length) + j - 1;
-						weight = energy[i + 1][j - 1];
-						relax(from, to, weight, distTo, vertexTo);
+		for (int i = 0; i < r; i++) {
+			for (int j = (i < fullRows) ? fullCols : 0; j < c; j++) {
+				double sum = 0;
+				int n = 0;
+				for (int y = 2 * i; y < Math.min(2 * i + 2, rows[level]); y++) {
+					for (int x = 2 * j; x < Math.min(2 * j + 2, cols[level]); x++) {
+						sum += fine[(y * fineStride) + x];
+						n++;
 					}
-					// check
-					if (j < (energy[0].length - 1)) {
-						to = ((i + 1) * energy[0].length) + j + 1;
-						weight = energy[i + 1][j + 1];
-						relax(from, to, weight, distTo, vertexTo);
+				}
+				coarse[(i * c) + j] = (n == 4) ? sum : (4 * sum) / n;
+			}
+		}
+		rows[level + 1] = r;
+		cols[level + 1] = c;
+	}
+
+	// cheapest seam through rows x cols energies whose entry in row i lies in [lo[i], hi[i]];
+	// ties go to the leftmost parent and end, as in getVerticalSeam()
+	private int[] getBandedSeam(double[] energy, int stride, int rows, int cols, int[] lo, int[] hi) {
+		int span = 0;
+		for (int i = 0; i < rows; i++) {
+			span = Math.max(span, hi[i] - lo[i] + 1);
+		}
+		double[] prev = new double[span];
+		double[] cur = new double[span];
+		byte[] dir = new byte[rows * span];
+		for (int j = lo[0]; j <= hi[0]; j++) {
+			prev[j - lo[0]] = energy[j];
+		}
+		for (int i = 1; i < rows; i++) {
+			for (int j = lo[i]; j <= hi[i]; j++) {
+				double weight = energy[(i * stride) + j];
+				double best = Double.POSITIVE_INFINITY;
+				int from = 0;
+				for (int p = Math.max(j - 1, lo[i - 1]); p <= Math.min(j + 1, hi[i - 1]); p++) {
+					double dist = prev[p - lo[i - 1]] + weight;
+					if (dist < best) {
+						best = dist;
+						from = p - j;
 					}
 				}
+				cur[j - lo[i]] = best;
+				dir[(i * span) + j - lo[i]] = (byte) from;
+			}
+			double[] swap = prev;
+			prev = cur;
+			cur = swap;
+		}
+		int last = rows - 1;
+		int end = lo[last];
+		for (int j = lo[last] + 1; j <= hi[last]; j++) {
+			if (prev[j - lo[last]] < prev[end - lo[last]]) {
+				end = j;
 			}
 		}
-		int verticalSeam[] = new int[energy.length];
-		int vertex = energy.length * energy[0].length;
-		int index = energy.length - 1;
-		while (vertexTo[vertex] != -1) {
-			vertex = vertexTo[vertex];
-			verticalSeam[index--] = vertex % energy[0].length;
+		int[] seam = new int[rows];
+		seam[last] = end;
+		for (int i = last; i > 0; i--) {
+			seam[i - 1] = seam[i] + dir[(i * span) + seam[i] - lo[i]];
+		}
+		return seam;
+	}
+
+	// Carves the given number of vertical seams from a copy of picture with a pyramid of the given levels
+	// and band, finding the exact seam as well before each removal, and reports how long
+	// each search took and how much energy the pyramid seams carried over the exact ones.
+	public static PyramidReport evaluatePyramid(Picture picture, int seams, int levels, int band) {
+		SeamCarver carver = new SeamCarver(picture);
+		carver.setPyramid(levels, band);
+		carver.checkSeamCount(seams, carver.width());
+		carver.setLayout(false);
+		PyramidReport report = new PyramidReport();
+		for (int n = 0; n < seams; n++) {
+			long start = System.nanoTime();
+			int[] exact = carver.getVerticalSeam();
+			long middle = System.nanoTime();
+			int[] approximate = carver.getPyramidSeam();
+			report.exactNanos += middle - start;
+			report.pyramidNanos += System.nanoTime() - middle;
+			double exactEnergy = carver.seamEnergy(exact);
+			double pyramidEnergy = carver.seamEnergy(approximate);
+			report.exactEnergy += exactEnergy;
+			report.pyramidEnergy += pyramidEnergy;
+			report.maxRatio = Math.max(report.maxRatio, pyramidEnergy / exactEnergy);
+			if (pyramidEnergy == exactEnergy) {
+				report.optimal++;
+			}
+			report.seams++;
+			carver.removeSeam(approximate);
+		}
+		return report;
+	}
+
+	private double seamEnergy(int[] seam) {
+		double sum = 0;
+		for (int row = 0; row < seam.length; row++) {
+			sum += energy[(row * stride) + seam[row]];
+		}
+		return sum;
+	}
+
+	// search times and seam energies of pyramid against exact seams, from evaluatePyramid()
+	public static final class PyramidReport {
+		private int seams;
+		private int optimal;
+		private long exactNanos;
+		private long pyramidNanos;
+		private double exactEnergy;
+		private double pyramidEnergy;
+		private double maxRatio;
+
+		private PyramidReport() {
+		}
+
+		public int seams() {
+			return seams;
+		}
+
+		// fraction of pyramid seams as cheap as the exact seam
+		public double optimalRate() {
+			return (double) optimal / Math.max(1, seams);
+		}
+
+		public double exactMillis() {
+			return exactNanos / 1e6;
+		}
+
+		public double pyramidMillis() {
+			return pyramidNanos / 1e6;
+		}
+
+		// total energy of the pyramid seams over that of the exact seams, at least 1
+		public double energyRatio() {
+			return pyramidEnergy / exactEnergy;
+		}
+
+		// the worst single seam's energy ratio
+		public double maxEnergyRatio() {
+			return maxRatio;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("seams=%d exactMillis=%.1f pyramidMillis=%.1f speedup=%.2f energyRatio=%.4f "
+					+ "maxEnergyRatio=%.4f optimal=%.3f", seams, exactMillis(), pyramidMillis(),
+					exactMillis() / pyramidMillis(), energyRatio(), maxEnergyRatio(), optimalRate());
 		}
-		return verticalSeam;
 	}
 
-	private void relax(int from, int to, double weight, double[] distTo, int[] vertexTo) {
-		if (distTo[to] > (distTo[from] + weight)) {
-			distTo[to] = distTo[from] + weight;
-			vertexTo[to] = from;
+	// Hands the arrays back to the buffers the carver was built on, each pair with the
+	// larger array first so that the next carver finds it. The carver must not be used
+	// afterwards.
+	void recycle() {
+		if (buffers == null) {
+			return;
+		}
+		buffers.pixels = (pixels.length >= spare.length) ? pixels : spare;
+		buffers.spare = (pixels.length >= spare.length) ? spare : pixels;
+		if (energy != null) {
+			buffers.energy = (energy.length >= spareEnergy.length) ? energy : spareEnergy;
+			buffers.spareEnergy = (energy.length >= spareEnergy.length) ? spareEnergy : energy;
+		} else {
+			buffers.spareEnergy = spareEnergy;
+		}
+		buffers.distTo = distTo;
+		buffers.distFrom = distFrom;
+		buffers.edgeTo = edgeTo;
+		buffers.cost = cost;
+		pixels = null;
+		energy = null;
+	}
+
+	// The arrays a carver works in, passed from one carver to the next by a thread that
+	// carves many pictures in turn. None of them shrinks, so after a while they fit the
+	// largest picture seen and carving allocates little more than the seams. Not safe for
+	// use by two carvers at once.
+	static final class Buffers {
+		private int[] pixels = new int[0];
+		private int[] spare = new int[0];
+		private double[] energy = new double[0];
+		private double[] spareEnergy = new double[0];
+		private double[] distTo = new double[0];
+		private double[] distFrom = new double[0];
+		private byte[] edgeTo = new byte[0];
+		private double[] cost = new double[0];
+
+		// approximate heap footprint of the arrays, in bytes
+		long memoryBytes() {
+			return 4L * (pixels.length + spare.length)
+					+ 8L * (energy.length + spareEnergy.length + distTo.length + distFrom.length + cost.length)
+					+ edgeTo.length;
 		}
 	}
 
-	private double[][] getEnergyMatrix() {
-		int w = width();
-		int h = height();
-		double[][] energy = new double[h][w];
-		for (int i = 0; i < h; i++) {
-			for (int j = 0; j < w; j++) {
-				energy[i][j] = energy(j, i);
+	private double[] getEnergy() {
+		if (energy == null) {
+			int rows = rows();
+			if ((buffers != null) && (buffers.energy.length >= pixels.length)) {
+				energy = buffers.energy;
+			} else {
+				energy = new double[pixels.length];
+			}
+			if ((pool != null) && (rows * cols() >= PARALLEL_PIXELS)) {
+				pool.invoke(new EnergyRows(0, rows));
+			} else {
+				computeEnergyRows(0, rows);
 			}
 		}
 		return energy;
 	}
 
-	private double[][] getEnergyTransposeMatrix() {
-		int w = width();
-		int h = height();
-		double[][] energy = new double[w][h];
-		for (int i = 0; i < w; i++) {
-			for (int j = 0; j < h; j++) {
-				energy[i][j] = energy(i, j);
+	// border pixels one at a time and the interior of each row as one run of the kernel
+	private void computeEnergyRows(int lo, int hi) {
+		int rows = rows();
+		int cols = cols();
+		for (int row = lo; row < hi; row++) {
+			int base = row * stride;
+			if ((row == 0) || (row == rows - 1) || (cols < 3)) {
+				Arrays.fill(energy, base, base + cols, 1000);
+				continue;
 			}
+			energy[base] = 1000;
+			energy[base + cols - 1] = 1000;
+			KERNEL.computeRun(pixels, stride, base + 1, base + cols - 1, energy);
+		}
+	}
+
+	// energies of storage rows [lo, hi), split in halves down to bands of about BAND_PIXELS
+	private final class EnergyRows extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int lo;
+		private final int hi;
+
+		EnergyRows(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if ((hi - lo == 1) || ((long) (hi - lo) * cols() <= BAND_PIXELS)) {
+				computeEnergyRows(lo, hi);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new EnergyRows(lo, mid), new EnergyRows(mid, hi));
 		}
-		return energy;
 	}
 
 	// remove horizontal seam from current picture
@@ -169,19 +731,8 @@ public class SeamCarver {
 		nullCheck(seam);
 		checkValidSeam(seam, false);
 		argLTEOne(height());
-		int width = width();
-		int height = height();
-		Picture p = new Picture(width, height - 1);
-		for (int col = 0; col < width; col++) {
-			for (int row = 0, r = 0; row < height; row++, r++) {
-				if (seam[col] != row) {
-					p.setRGB(col, r, picture.getRGB(col, row));
-				} else {
-					r--;
-				}
-			}
-		}
-		this.picture = p;
+		setLayout(true);
+		removeSeam(seam);
 	}
 
 	// remove vertical seam from current picture
@@ -189,19 +740,177 @@ public class SeamCarver {
 		nullCheck(seam);
 		checkValidSeam(seam, true);
 		argLTEOne(width());
-		int width = width();
-		int height = height();
-		Picture p = new Picture(width - 1, height);
-		for (int row = 0; row < height; row++) {
-			for (int col = 0, c = 0; col < width; col++, c++) {
-				if (seam[row] != col) {
-					p.setRGB(c, row, picture.getRGB(col, row));
-				} else {
-					c--;
+		setLayout(false);
+		removeSeam(seam);
+	}
+
+	// remove k vertical seams, each the lowest energy seam of the picture left by the previous
+	// ones; the pixels and energies stay in the buffers throughout, so call picture() once
+	// at the end
+	public void removeVerticalSeams(int k) {
+		checkSeamCount(k, width());
+		// before setLayout(), which may transpose the whole picture
+		if (k == 0) {
+			return;
+		}
+		setLayout(false);
+		removeSeams(k);
+	}
+
+	// remove k horizontal seams, as above
+	public void removeHorizontalSeams(int k) {
+		checkSeamCount(k, height());
+		if (k == 0) {
+			return;
+		}
+		setLayout(true);
+		removeSeams(k);
+	}
+
+	// Removes k seams through the storage rows, keeping the path cost of every pixel in the
+	// cost matrix between seams. Removing a seam only changes the inputs of the pixels next
+	// to it, and a pixel's cost only changes if one of those or of its parents' costs did,
+	// so each row is recomputed over the columns around the seam plus those below a changed
+	// cost in the row above. The changes usually die out within a few columns, so a seam
+	// costs about one pass over its rows instead of a pass over the picture, and the seams
+	// are the same as repeated findVerticalSeam() calls would give.
+	private void removeSeams(int k) {
+		if (pyramidLevels > 0) {
+			for (int n = 0; n < k; n++) {
+				removeSeam(getPyramidSeam());
+			}
+			return;
+		}
+		double[] energy = getEnergy();
+		if (cost.length < pixels.length) {
+			cost = new double[pixels.length];
+		}
+		ensureEdges();
+		int rows = rows();
+		if (parallelRows(rows, cols())) {
+			pool.invoke(new SeamRows(energy, rows, cols(), true));
+		} else {
+			relaxRows(energy, rows, cols(), false, true);
+		}
+		for (int n = 0; n < k; n++) {
+			int cols = cols();
+			int[] seam = backtrack(cost, (rows - 1) * stride, rows, cols);
+			for (int row = 0; row < rows; row++) {
+				int start = (row * stride) + seam[row];
+				System.arraycopy(cost, start + 1, cost, start, cols - seam[row] - 1);
+				System.arraycopy(edgeTo, start + 1, edgeTo, start, cols - seam[row] - 1);
+			}
+			removeSeam(seam);
+			updateCosts(seam);
+		}
+	}
+
+	// recomputes the costs changed by removing seam, after removeSeam() shifted the rows
+	private void updateCosts(int[] seam) {
+		double[] energy = this.energy;
+		int cols = cols();
+		// columns of the previous row whose cost changed, empty if changedLo > changedHi
+		int changedLo = Integer.MAX_VALUE;
+		int changedHi = Integer.MIN_VALUE;
+		for (int i = 0; i < seam.length; i++) {
+			// the pixels next to the seam have new energies, and near it the three pixels
+			// above are no longer the same ones
+			int lo = seam[i] - 1;
+			int hi = seam[i];
+			if (i > 0) {
+				lo = Math.min(seam[i], seam[i - 1]) - 2;
+				hi = Math.max(seam[i], seam[i - 1]) + 1;
+			}
+			if (changedLo <= changedHi) {
+				lo = Math.min(lo, changedLo - 1);
+				hi = Math.max(hi, changedHi + 1);
+			}
+			lo = Math.max(lo, 0);
+			hi = Math.min(hi, cols - 1);
+			int base = i * stride;
+			changedLo = Integer.MAX_VALUE;
+			changedHi = Integer.MIN_VALUE;
+			for (int j = lo; j <= hi; j++) {
+				double dist = (i == 0) ? energy[j] : relaxCell(energy, base, j, cols);
+				if (dist != cost[base + j]) {
+					cost[base + j] = dist;
+					changedLo = Math.min(changedLo, j);
+					changedHi = j;
+				}
+			}
+		}
+	}
+
+	// cost of the pixel at column j of the row starting at base, from the costs of the row
+	// above in the cost matrix; records its parent direction as relaxRow() does
+	private double relaxCell(double[] energy, int base, int j, int cols) {
+		double weight = energy[base + j];
+		int above = base - stride;
+		if ((j == 0) || (j == cols - 1)) {
+			int from = Math.max(0, j - 1);
+			double best = cost[above + from] + weight;
+			for (int p = from + 1; p <= Math.min(cols - 1, j + 1); p++) {
+				double dist = cost[above + p] + weight;
+				if (dist < best) {
+					best = dist;
+					from = p;
 				}
 			}
+			edgeTo[base + j] = (byte) (from - j);
+			return best;
+		}
+		double best = cost[above + j - 1] + weight;
+		double up = cost[above + j] + weight;
+		double right = cost[above + j + 1] + weight;
+		int from = -1;
+		if (up < best) {
+			best = up;
+			from = 0;
+		}
+		if (right < best) {
+			best = right;
+			from = 1;
+		}
+		edgeTo[base + j] = (byte) from;
+		return best;
+	}
+
+	// carve the picture down to width x height, vertical seams first so the layout is only
+	// transposed once
+	public void resizeTo(int width, int height) {
+		checkWidthValid(width - 1);
+		checkHeightValid(height - 1);
+		removeVerticalSeams(width() - width);
+		removeHorizontalSeams(height() - height);
+	}
+
+	// Shifts the rest of each storage row left over the removed entry. Removing the pixel
+	// at column seam[row] only changes the energy of its two new neighbours in the row,
+	// now at columns seam[row] - 1 and seam[row]: every other pixel keeps its neighbours,
+	// because adjacent seam entries differ by at most 1.
+	private void removeSeam(int[] seam) {
+		int cols = cols();
+		for (int row = 0; row < seam.length; row++) {
+			int start = (row * stride) + seam[row];
+			System.arraycopy(pixels, start + 1, pixels, start, cols - seam[row] - 1);
+			if (energy != null) {
+				System.arraycopy(energy, start + 1, energy, start, cols - seam[row] - 1);
+			}
+		}
+		if (transposed) {
+			height--;
+		} else {
+			width--;
+		}
+		if (energy == null) {
+			return;
+		}
+		// recompute once the whole seam is gone, so the rows above and below are final
+		for (int row = 0; row < seam.length; row++) {
+			for (int col = Math.max(0, seam[row] - 1); col <= Math.min(cols - 2, seam[row]); col++) {
+				energy[(row * stride) + col] = computeEnergy(row, col);
+			}
 		}
-		this.picture = p;
 	}
 
 	// between 0 and width − 1
@@ -218,10 +927,11 @@ public class SeamCarver {
 		}
 	}
 
-	private void nullCheck(Object object) {
+	private static <T> T nullCheck(T object) {
 		if (object == null) {
 			throw new IllegalArgumentException("null parameter");
 		}
+		return object;
 	}
 
 	// array of the wrong length OR
@@ -261,6 +971,13 @@ public class SeamCarver {
 		}
 	}
 
+	// between 0 and size − 1, so at least one pixel is left
+	private void checkSeamCount(int k, int size) {
+		if ((k < 0) || (k >= size)) {
+			throw new IllegalArgumentException("seam count not in range");
+		}
+	}
+
 	private void argLTEOne(int arg) {
 		if (arg <= 1) {
 			throw new IllegalArgumentException("arg less than or equal to 1");
@@ -0,0 +1,51 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Energy kernel on jdk.incubator.vector: loads the four neighbours of a segment of pixels
+// as int vectors, unpacks and differences the channels lane-wise, and widens the int sums
+// to doubles in two halves for the square root. EnergyKernel loads it by name.
+// It lives apart from the other sources so that javac *.java in seam-carver builds without
+// the incubator module. To use it, compile it from seam-carver next to the other classes:
+//   javac -cp algs4.jar:. --add-modules jdk.incubator.vector -d . vector/VectorEnergy.java
+// and run with java --add-modules jdk.incubator.vector.
+final class VectorEnergy extends EnergyKernel {
+
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	// the same vector size holds half as many doubles
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	String name() {
+		return "vector" + INTS.vectorBitSize();
+	}
+
+	@Override
+	void computeRun(int[] pixels, int stride, int from, int to, double[] energy) {
+		int i = from;
+		int bound = from + INTS.loopBound(to - from);
+		int parts = INTS.length() / DOUBLES.length();
+		for (; i < bound; i += INTS.length()) {
+			IntVector sum = delSq(IntVector.fromArray(INTS, pixels, i - 1), IntVector.fromArray(INTS, pixels, i + 1))
+					.add(delSq(IntVector.fromArray(INTS, pixels, i - stride),
+							IntVector.fromArray(INTS, pixels, i + stride)));
+			for (int part = 0; part < parts; part++) {
+				((DoubleVector) sum.convertShape(VectorOperators.I2D, DOUBLES, part))
+						.lanewise(VectorOperators.SQRT).intoArray(energy, i + (part * DOUBLES.length()));
+			}
+		}
+		computeScalar(pixels, stride, i, to, energy);
+	}
+
+	private static IntVector delSq(IntVector m1, IntVector p1) {
+		IntVector r = channel(p1, 16).sub(channel(m1, 16));
+		IntVector g = channel(p1, 8).sub(channel(m1, 8));
+		IntVector b = channel(p1, 0).sub(channel(m1, 0));
+		return r.mul(r).add(g.mul(g)).add(b.mul(b));
+	}
+
+	private static IntVector channel(IntVector rgb, int shift) {
+		return rgb.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+	}
+}
@@ -4,9 +4,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import edu.princeton.cs.algs4.FlowEdge;
-import edu.princeton.cs.algs4.FlowNetwork;
-import edu.princeton.cs.algs4.FordFulkerson;
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 
@@ -20,35 +17,127 @@ public class BaseballElimination {
 	private boolean[] eliminated;
 	private String[] teams;
 	private List<List<String>> eliminationCertificate;
+	// eliminated and eliminationCertificate are only set for decided teams; all three,
+	// and the fields below, are guarded by this
+	private boolean[] decided;
+	// certificates found by max flow so far, reused for the teams they also eliminate
+	private List<Certificate> certificates;
+	// built on the first max flow
+	private FlowGraph graph;
+	// most wins any team can still reach
+	private int maxWins;
+	private int flowComputations;
 
 	// create a baseball division from given filename in format specified below
+	// Nothing is decided until a team is asked about: each team is decided on its first
+	// isEliminated() or certificateOfElimination() and remembered, or all at once by
+	// computeAll().
 	public BaseballElimination(String filename) {
 		parseInput(filename);
-		for (int xTeam = 0; xTeam < numberOfTeams(); xTeam++) {
-			if (isTrivial(xTeam)) {
-				continue;
+		decided = new boolean[numberOfTeams()];
+		certificates = new ArrayList<>();
+		for (int i = 0; i < numberOfTeams(); i++) {
+			maxWins = Math.max(maxWins, wins[i] + remaining[i]);
+		}
+	}
+
+	// Decides every team not yet decided, in order of most possible wins first, so that
+	// the certificates of the strongest eliminated teams are found first and cover the most
+	// teams after them.
+	public synchronized void computeAll() {
+		Integer[] order = new Integer[numberOfTeams()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(wins[b] + remaining[b], wins[a] + remaining[a]));
+		for (int xTeam : order) {
+			decide(xTeam);
+		}
+	}
+
+	// decides xTeam on first use; callers hold the lock on this
+	private void decide(int xTeam) {
+		if (!decided[xTeam]) {
+			compute(xTeam);
+			decided[xTeam] = true;
+		}
+	}
+
+	// Decides whether xTeam is eliminated, running a max flow only if nothing simpler
+	// settles it. A subset R eliminates every team outside it that can win fewer games
+	// than the teams in R average, (wins of R + games within R) / |R|. No team reaches
+	// that average when R holds a team with the most possible wins, so a team that can
+	// reach maxWins is never eliminated, and a certificate already found for one team
+	// eliminates every team outside it with as few possible wins.
+	private void compute(int xTeam) {
+		int most = wins[xTeam] + remaining[xTeam];
+		if (most == maxWins) {
+			return;
+		}
+		if (isTrivial(xTeam)) {
+			return;
+		}
+		for (Certificate c : certificates) {
+			if (c.eliminates(xTeam)) {
+				eliminated[xTeam] = true;
+				eliminationCertificate.set(xTeam, c.teams);
+				return;
 			}
-			FlowNetwork flowNetwork = constructFlowNetwork(xTeam);
-			FordFulkerson fordFulkerson = new FordFulkerson(flowNetwork, 0, getTotalVertexCountForFlowNetwork() - 1);
-			// after FoldFolkerson, if a team vertex is on the s-side of the
-			// mincut, then it is one of the eliminationCertificate.
-			List<String> ec = new ArrayList<>();
-			for (int i = 0; i < numberOfTeams(); i++) {
-				if (i == xTeam) {
+		}
+		flowComputations++;
+		if (graph == null) {
+			graph = new FlowGraph();
+		}
+		graph.solve(xTeam);
+		// after the max flow, the teams still reachable from the source in the
+		// residual graph are on the s-side of the min cut: the eliminationCertificate
+		List<String> ec = new ArrayList<>();
+		boolean[] members = new boolean[numberOfTeams()];
+		for (int i = 0; i < numberOfTeams(); i++) {
+			if ((i != xTeam) && graph.reachable(graph.teamVertex(i))) {
+				ec.add(teams[i]);
+				members[i] = true;
+			}
+		}
+		if (ec.isEmpty()) {
+			eliminated[xTeam] = false;
+			eliminationCertificate.set(xTeam, null);
+		} else {
+			eliminated[xTeam] = true;
+			eliminationCertificate.set(xTeam, ec);
+			certificates.add(new Certificate(ec, members));
+		}
+	}
+
+	// a subset R of teams, with the total of their wins and the games left between them
+	private final class Certificate {
+		private final List<String> teams;
+		private final boolean[] members;
+		private final int size;
+		private final long total;
+
+		Certificate(List<String> teams, boolean[] members) {
+			this.teams = teams;
+			this.members = members;
+			size = teams.size();
+			long sum = 0;
+			for (int i = 0; i < members.length; i++) {
+				if (!members[i]) {
 					continue;
 				}
-				int vertex = getTeamVertexInFlowNetwork(i, xTeam);
-				if (fordFulkerson.inCut(vertex)) {
-					ec.add(teams[i]);
+				sum += wins[i];
+				for (int j = i + 1; j < members.length; j++) {
+					if (members[j]) {
+						sum += against[i][j];
+					}
 				}
 			}
-			if (ec.isEmpty()) {
-				eliminated[xTeam] = false;
-				eliminationCertificate.set(xTeam, null);
-			} else {
-				eliminated[xTeam] = true;
-				eliminationCertificate.set(xTeam, ec);
-			}
+			total = sum;
+		}
+
+		// does R eliminate team x: x not in R and wins + remaining of x < total / size?
+		boolean eliminates(int x) {
+			return !members[x] && ((long) (wins[x] + remaining[x]) * size < total);
 		}
 	}
 
@@ -57,7 +146,7 @@ public class BaseballElimination {
 			if (i == xTeam) {
 				continue;
 			}
-			double capacity = wins[xTeam] + remaining[xTeam] - wins[i];
+			int capacity = wins[xTeam] + remaining[xTeam] - wins[i];
 			if (capacity < 0) {
 				eliminated[xTeam] = true;
 				List<String> ec = new ArrayList<>();
@@ -69,57 +158,161 @@ public class BaseballElimination {
 		return false;
 	}
 
-	private FlowNetwork constructFlowNetwork(int xTeam) {
-		FlowNetwork flowNetwork = new FlowNetwork(getTotalVertexCountForFlowNetwork());
-		int gamevertex = 1;
-		for (int i = 0; i < numberOfTeams(); i++) {
-			for (int j = i + 1; j < numberOfTeams(); j++) {
-				if ((i == xTeam) || (j == xTeam)) {
-					continue;
+	// The flow network of every team at once, in int arrays: the source, a vertex per game
+	// between two teams, a vertex per team and the sink. It is built once; solving for team
+	// x only resets the residual capacities, closes the source edges of x's games and sets
+	// the sink capacity of each team i to wins[x] + remaining[x] - wins[i]. x's games then
+	// carry no flow and x's own vertex is unreachable, as if they were not in the network.
+	// The max flow is found with Dinic's algorithm: a BFS from the source sorts the vertices
+	// into levels, a DFS pushes blocking flow along edges that go one level down, repeated
+	// until the sink is out of reach. Reachability from the source is left in level[].
+	private final class FlowGraph {
+		private static final int INFINITY = Integer.MAX_VALUE;
+		private final int games;
+		private final int source;
+		private final int sink;
+		// edge e runs to head[e], and e ^ 1 is its reverse; the edges leaving v are
+		// edges[first[v]] up to edges[first[v + 1]]
+		private final int[] head;
+		private final int[] capacity;
+		private final int[] residual;
+		private final int[] first;
+		private final int[] edges;
+		// the two teams of the game each source edge feeds, and each team's sink edge
+		private final int[] gameTeam1;
+		private final int[] gameTeam2;
+		private final int[] sinkEdge;
+		private final int[] level;
+		private final int[] queue;
+		// next edge to try out of each vertex in the current blocking flow
+		private final int[] next;
+
+		FlowGraph() {
+			int n = numberOfTeams();
+			games = (n * (n - 1)) / 2;
+			source = 0;
+			sink = games + n + 1;
+			int vertices = sink + 1;
+			int count = 2 * ((3 * games) + n);
+			head = new int[count];
+			capacity = new int[count];
+			residual = new int[count];
+			gameTeam1 = new int[games];
+			gameTeam2 = new int[games];
+			sinkEdge = new int[n];
+			int[] tail = new int[count];
+			int e = 0;
+			int game = 0;
+			for (int i = 0; i < n; i++) {
+				for (int j = i + 1; j < n; j++) {
+					gameTeam1[game] = i;
+					gameTeam2[game] = j;
+					e = addEdge(tail, e, source, 1 + game, against[i][j]);
+					e = addEdge(tail, e, 1 + game, teamVertex(i), INFINITY);
+					e = addEdge(tail, e, 1 + game, teamVertex(j), INFINITY);
+					game++;
 				}
-				FlowEdge e = new FlowEdge(0, gamevertex, against[i][j]);
-				flowNetwork.addEdge(e);
-				flowNetwork.addEdge(
-						new FlowEdge(gamevertex, getTeamVertexInFlowNetwork(i, xTeam), Double.POSITIVE_INFINITY));
-				flowNetwork.addEdge(
-						new FlowEdge(gamevertex, getTeamVertexInFlowNetwork(j, xTeam), Double.POSITIVE_INFINITY));
-				gamevertex++;
 			}
+			for (int i = 0; i < n; i++) {
+				sinkEdge[i] = e;
+				e = addEdge(tail, e, teamVertex(i), sink, 0);
+			}
+			first = new int[vertices + 1];
+			for (int x = 0; x < count; x++) {
+				first[tail[x] + 1]++;
+			}
+			for (int v = 0; v < vertices; v++) {
+				first[v + 1] += first[v];
+			}
+			edges = new int[count];
+			int[] fill = Arrays.copyOf(first, vertices);
+			for (int x = 0; x < count; x++) {
+				edges[fill[tail[x]]++] = x;
+			}
+			level = new int[vertices];
+			queue = new int[vertices];
+			next = new int[vertices];
 		}
 
-		for (int i = 0; i < numberOfTeams(); i++) {
-			if (i == xTeam) {
-				continue;
+		// edge v->w with capacity c and its reverse w->v with none; the index after them
+		private int addEdge(int[] tail, int e, int v, int w, int c) {
+			tail[e] = v;
+			head[e] = w;
+			capacity[e] = c;
+			tail[e + 1] = w;
+			head[e + 1] = v;
+			return e + 2;
+		}
+
+		int teamVertex(int team) {
+			return games + 1 + team;
+		}
+
+		// max flow with team xTeam left out
+		void solve(int xTeam) {
+			System.arraycopy(capacity, 0, residual, 0, capacity.length);
+			// source edges come first, three edges (six with reverses) per game
+			for (int game = 0; game < games; game++) {
+				if ((gameTeam1[game] == xTeam) || (gameTeam2[game] == xTeam)) {
+					residual[6 * game] = 0;
+				}
+			}
+			for (int i = 0; i < numberOfTeams(); i++) {
+				residual[sinkEdge[i]] = (i == xTeam) ? 0 : wins[xTeam] + remaining[xTeam] - wins[i];
+			}
+			while (bfs()) {
+				System.arraycopy(first, 0, next, 0, next.length);
+				while (push(source, INFINITY) > 0) {
+					// keep pushing until the level graph is blocked
+				}
 			}
-			double capacity = wins[xTeam] + remaining[xTeam] - wins[i];
-			flowNetwork.addEdge(new FlowEdge(getTeamVertexInFlowNetwork(i, xTeam),
-					getTotalVertexCountForFlowNetwork() - 1, capacity));
 		}
-		return flowNetwork;
-	}
 
-	private int getTeamVertexInFlowNetwork(int team, int xTeam) {
-		int vertex;
-		if (team > xTeam) {
-			// team vertex = source + numOfGameVertices + (team-vertex +
-			// 1) - 1(as team > xteam) - 1(as index starts from 0)
-			vertex = (1 + getNumOfGameVertices() + (team + 1) - 1) - 1;
-		} else {
-			// team vertex = source + numOfGameVertices + (team-vertex +
-			// 1) - 1(as index starts from 0)
-			vertex = (1 + getNumOfGameVertices() + (team + 1)) - 1;
+		// levels from the source over edges with residual capacity; true if the sink is reached
+		private boolean bfs() {
+			Arrays.fill(level, -1);
+			level[source] = 0;
+			int lo = 0;
+			int hi = 0;
+			queue[hi++] = source;
+			while (lo < hi) {
+				int v = queue[lo++];
+				for (int x = first[v]; x < first[v + 1]; x++) {
+					int e = edges[x];
+					int w = head[e];
+					if ((residual[e] > 0) && (level[w] < 0)) {
+						level[w] = level[v] + 1;
+						queue[hi++] = w;
+					}
+				}
+			}
+			return level[sink] >= 0;
 		}
-		return vertex;
-	}
 
-	private int getTotalVertexCountForFlowNetwork() {
-		return getNumOfGameVertices() + numberOfTeams() + 2 - 1;
-	}
+		// pushes up to limit units from v to the sink along level edges; the amount pushed
+		private int push(int v, int limit) {
+			if (v == sink) {
+				return limit;
+			}
+			for (; next[v] < first[v + 1]; next[v]++) {
+				int e = edges[next[v]];
+				int w = head[e];
+				if ((residual[e] > 0) && (level[w] == level[v] + 1)) {
+					int pushed = push(w, Math.min(limit, residual[e]));
+					if (pushed > 0) {
+						residual[e] -= pushed;
+						residual[e ^ 1] += pushed;
+						return pushed;
+					}
+				}
+			}
+			return 0;
+		}
 
-	private int getNumOfGameVertices() {
-		int numOfTeams = numberOfTeams() - 1;
-		int numOfGameVertices = (numOfTeams * (numOfTeams - 1)) / 2;
-		return numOfGameVertices;
+		// is v on the source side of the min cut found by the last solve()?
+		boolean reachable(int v) {
+			return level[v] >= 0;
+		}
 	}
 
 	private void parseInput(String filename) {
@@ -150,6 +343,11 @@ public class BaseballElimination {
 		}
 	}
 
+	// number of max flows run so far to decide the teams
+	public synchronized int flowComputations() {
+		return flowComputations;
+	}
+
 	// number of teams
 	public int numberOfTeams() {
 		return teamMap.size();
@@ -186,28 +384,30 @@ public class BaseballElimination {
 	}
 
 	// is given team eliminated?
-	public boolean isEliminated(String team) {
+	public synchronized boolean isEliminated(String team) {
 		checkValidTeam(team);
-		return eliminated[teamMap.get(team)];
+		int xTeam = teamMap.get(team);
+		decide(xTeam);
+		return eliminated[xTeam];
 	}
 
 	// subset R of teams that eliminates given team; null if not eliminated
-	public Iterable<String> certificateOfElimination(String team) {
+	public synchronized Iterable<String> certificateOfElimination(String team) {
 		checkValidTeam(team);
-		return eliminationCertificate.get(teamMap.get(team));
+		int xTeam = teamMap.get(team);
+		decide(xTeam);
+		return eliminationCertificate.get(xTeam);
 	}
 
 	private void checkValidTeam(String team) {
-		for (String t : teams()) {
-			if (t.equals(team)) {
-				return;
-			}
+		if (!teamMap.containsKey(team)) {
+			throw new IllegalArgumentException("Not a valid team");
 		}
-		throw new IllegalArgumentException("Not a valid team");
 	}
 
 	public static void main(String[] args) {
 		BaseballElimination division = new BaseballElimination(args[0]);
+		division.computeAll();
 		for (String team : division.teams()) {
 			if (division.isEliminated(team)) {
 				StdOut.print(team + " is eliminated by the subset R = { ");
@@ -219,6 +419,7 @@ public class BaseballElimination {
 				StdOut.println(team + " is not eliminated");
 			}
 		}
+		StdOut.println(division.flowComputations() + " of " + division.numberOfTeams() + " teams needed a max flow");
 	}
 
 }